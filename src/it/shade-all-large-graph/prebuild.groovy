@@ -0,0 +1,106 @@
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+// Writes a synthetic dependency graph of (by default) 2000 artifacts into the local repository of the ITs:
+// - lib-0000 is the root of a tree where every artifact depends on the next two, plus a third one shared with its
+//   sibling (diamonds);
+// - the last artifacts form a deep chain, reached by many leaves of the tree;
+// - every artifact has packages of its own, spread over about a hundred top level packages, plus a class in one of a
+//   few packages shared by many artifacts: about one relocation rule per artifact;
+// - a few artifacts are very large jars, with tens of thousands of classes.
+int artifacts = Integer.getInteger("umbrellone.it.largeGraph.artifacts", 2000)
+int chain = Math.min(250, artifacts.intdiv(4))
+int tree = artifacts - chain
+
+File groupDir = new File(localRepositoryPath, "dev/dimlight/synthetic")
+File marker = new File(groupDir, "graph-v2-${artifacts}.done")
+if (marker.isFile()) {
+    println "synthetic graph of [${artifacts}] artifacts already in [${groupDir}]"
+    return true
+}
+
+String name(int i) {
+    return String.format("lib-%04d", i)
+}
+
+// the smallest valid class file: an empty public class.
+byte[] classFile(String internalName) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+    new DataOutputStream(bytes).withCloseable { out ->
+        out.writeShort(0xCAFE); out.writeShort(0xBABE) // magic
+        out.writeShort(0)
+        out.writeShort(52)
+        out.writeShort(5) // constant pool count + 1
+        out.writeByte(1); out.writeUTF(internalName)
+        out.writeByte(7); out.writeShort(1)
+        out.writeByte(1); out.writeUTF("java/lang/Object")
+        out.writeByte(7); out.writeShort(3)
+        out.writeShort(0x21) // public super
+        out.writeShort(2)
+        out.writeShort(4)
+        out.writeShort(0) // interfaces
+        out.writeShort(0) // fields
+        out.writeShort(0) // methods
+        out.writeShort(0) // attributes
+    }
+    return bytes.toByteArray()
+}
+
+List<Integer> dependenciesOf(int i, int tree, int artifacts) {
+    if (i >= tree) {
+        return i + 1 < artifacts ? [i + 1] : []
+    }
+    List<Integer> deps = [2 * i + 1, 2 * i + 2].findAll { it < tree }
+    if (i % 3 == 0 && 2 * i + 3 < tree) {
+        deps << 2 * i + 3
+    }
+    if (deps.isEmpty() && i % 10 == 0) {
+        deps << tree
+    }
+    return deps
+}
+
+long start = System.currentTimeMillis()
+for (int i = 0; i < artifacts; i++) {
+    File dir = new File(groupDir, "${name(i)}/1.0")
+    dir.mkdirs()
+
+    String dependencies = dependenciesOf(i, tree, artifacts).collect {
+        """    <dependency>
+      <groupId>dev.dimlight.synthetic</groupId>
+      <artifactId>${name(it)}</artifactId>
+      <version>1.0</version>
+    </dependency>
+"""
+    }.join("")
+    new File(dir, "${name(i)}-1.0.pom").text = """<?xml version="1.0" encoding="UTF-8"?>
+<project xmlns="http://maven.apache.org/POM/4.0.0">
+  <modelVersion>4.0.0</modelVersion>
+  <groupId>dev.dimlight.synthetic</groupId>
+  <artifactId>${name(i)}</artifactId>
+  <version>1.0</version>
+  <dependencies>
+${dependencies}  </dependencies>
+</project>
+"""
+
+    List<String> classes = []
+    String own = "s${i % 97}/lib${i}"
+    classes << "${own}/api/C0" << "${own}/api/C1" << "${own}/impl/C2" << "${own}/impl/internal/D"
+    classes << "shared/p${i % 40}/Lib${i}"
+    if (i % 500 == 250) {
+        (0..<200).each { p -> (0..<100).each { c -> classes << "big${i}/p${p}/C${c}" } }
+    }
+
+    new ZipOutputStream(new FileOutputStream(new File(dir, "${name(i)}-1.0.jar"))).withCloseable { jar ->
+        jar.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"))
+        jar.write("Manifest-Version: 1.0\r\n\r\n".bytes)
+        classes.each { cls ->
+            jar.putNextEntry(new ZipEntry(cls + ".class"))
+            jar.write(classFile(cls))
+        }
+    }
+}
+marker.text = ""
+println "synthetic graph of [${artifacts}] artifacts written to [${groupDir}] in [${System.currentTimeMillis() - start}] ms"
+return true
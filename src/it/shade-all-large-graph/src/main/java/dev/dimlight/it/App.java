@@ -0,0 +1,8 @@
+package dev.dimlight.it;
+
+public class App {
+
+    public static void main(String[] args) {
+        System.out.println("a project with a large (synthetic) dependency graph");
+    }
+}
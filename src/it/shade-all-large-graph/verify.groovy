@@ -0,0 +1,32 @@
+import groovy.json.JsonSlurper
+
+import java.util.zip.ZipFile
+
+// thresholds are generous for a CI box, tighten them with -D on the command line to hunt regressions.
+int artifacts = Integer.getInteger("umbrellone.it.largeGraph.artifacts", 2000)
+long maxMillis = Long.getLong("umbrellone.it.largeGraph.maxMillis", 120_000L)
+long maxPeakHeapBytes = Long.getLong("umbrellone.it.largeGraph.maxPeakHeapMb", 768L) * 1024 * 1024
+
+for (String goal : ["generate-conf", "shade-all"]) {
+    File report = new File(basedir, "target/umbrellone/${goal}-report.json")
+    assert report.isFile()
+    def metrics = new JsonSlurper().parse(report)
+    println "[${goal}] on [${metrics.jars}] jars: [${metrics.totalMillis}] ms, peak heap [${metrics.peakHeapBytes}] bytes, " +
+            "phases ${metrics.phasesMillis}"
+
+    assert metrics.goal == goal
+    assert metrics.jars == artifacts
+    assert metrics.rules >= artifacts
+    assert metrics.totalMillis <= maxMillis: "[${goal}] took [${metrics.totalMillis}] ms, more than [${maxMillis}]"
+    assert metrics.peakHeapBytes <= maxPeakHeapBytes: "[${goal}] peaked at [${metrics.peakHeapBytes}] bytes of heap, more than [${maxPeakHeapBytes}]"
+}
+
+File shadedJar = new File(basedir, "target/shade-all-large-graph-it-1.0.0-shaded.jar")
+new ZipFile(shadedJar).withCloseable { zip ->
+    int last = artifacts - 1
+    assert zip.getEntry("SHADY/s0/lib0/api/C0.class") != null
+    assert zip.getEntry("SHADY/s${last % 97}/lib${last}/impl/internal/D.class") != null
+    assert zip.getEntry("SHADY/shared/p7/Lib7.class") != null
+    assert zip.getEntry("SHADY/big250/p199/C99.class") != null
+    assert zip.getEntry("s0/lib0/api/C0.class") == null
+}
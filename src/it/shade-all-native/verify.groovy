@@ -0,0 +1,55 @@
+import java.util.zip.ZipFile
+
+File mainJar = new File(basedir, "target/shade-all-native-it-1.0.0.jar")
+assert mainJar.isFile()
+
+File shadedJar = new File(basedir, "target/shade-all-native-it-1.0.0-shaded.jar")
+assert shadedJar.isFile()
+
+new ZipFile(shadedJar).withCloseable { zip ->
+    assert zip.getEntry("SHADY/io/vertx/core/Vertx.class") != null
+    assert zip.getEntry("SHADY/io/netty/buffer/ByteBuf.class") != null
+    assert zip.getEntry("io/vertx/core/Vertx.class") == null
+
+    // jackson is not included, netty-codec-http2 is excluded
+    assert !zip.entries().any { it.name.contains("com/fasterxml/") }
+    assert !zip.entries().any { it.name.contains("io/netty/handler/codec/http2/") }
+
+    // the project classes reference the relocated packages
+    String app = new String(zip.getInputStream(zip.getEntry("dev/dimlight/test/App.class")).bytes, "ISO-8859-1")
+    assert app.contains("SHADY/io/vertx/core/Vertx")
+    assert !app.contains("Lio/vertx/core/Vertx;")
+
+    // the jar index lists the relocated packages
+    List<String> index = zip.getInputStream(zip.getEntry("META-INF/INDEX.LIST")).getText("UTF-8").readLines()
+    assert index[0] == "JarIndex-Version: 1.0"
+    assert index.contains("SHADY/io/vertx/core")
+    assert index.contains("dev/dimlight/test")
+}
+
+List<String> packageIndex = new File(basedir, "target/umbrellone/package-index.txt").readLines()
+assert packageIndex.any { it.startsWith("SHADY.io.vertx.core=io.vertx:vertx-core:") }
+assert packageIndex.contains("dev.dimlight.test=dev.dimlight.it:shade-all-native-it:1.0.0")
+
+File installed = new File(localRepositoryPath, "dev/dimlight/it/shade-all-native-it/1.0.0/shade-all-native-it-1.0.0-shaded.jar")
+assert installed.isFile()
+
+// the first build relocates every dependency into the fragment cache, the second one only reuses them
+def cacheSummaries = (new File(basedir, "build.log").text =~ /relocated fragment cache \[.*\]: \[(\d+)\] hits, \[(\d+)\] misses/).collect { it }
+assert cacheSummaries.size() == 2
+assert cacheSummaries[0][1] == "0" && cacheSummaries[0][2] != "0"
+assert cacheSummaries[1][1] == cacheSummaries[0][2] && cacheSummaries[1][2] == "0"
+
+// classes not reachable from the project are dropped, unless kept
+List<String> minimization = new File(basedir, "target/umbrellone/minimization-report.txt").readLines()
+def total = (minimization.last() =~ /^total=(\d+)\/(\d+),(\d+)\/(\d+)$/)[0]
+assert (total[1] as long) > 0 && (total[3] as long) > 0
+assert minimization.any { it.startsWith("io.netty:netty-codec-http:") }
+new ZipFile(shadedJar).withCloseable { zip ->
+    assert zip.getEntry("SHADY/io/vertx/core/impl/launcher/commands/RunCommand.class") != null
+    assert zip.entries().toList().count { it.name.endsWith(".class") } < (total[2] as long)
+}
+
+// the second build does not resolve the dependency graph again
+assert new File(basedir, "target/umbrellone/dependency-graph.txt").isFile()
+assert new File(basedir, "build.log").text.count("reusing the dependency graph stored in") == 1
@@ -0,0 +1,10 @@
+package dev.dimlight.it.a;
+
+/**
+ *
+ */
+public class App {
+    public static void main(String[] args) {
+        System.out.println(new com.google.gson.Gson().toJson(args));
+    }
+}
@@ -0,0 +1,10 @@
+package dev.dimlight.it.b;
+
+/**
+ *
+ */
+public class App {
+    public static void main(String[] args) {
+        System.out.println(org.apache.commons.lang3.StringUtils.join(args, ","));
+    }
+}
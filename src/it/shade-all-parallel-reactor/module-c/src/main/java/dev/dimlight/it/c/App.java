@@ -0,0 +1,10 @@
+package dev.dimlight.it.c;
+
+/**
+ *
+ */
+public class App {
+    public static void main(String[] args) {
+        System.out.println(new com.google.gson.Gson().toJson(org.apache.commons.lang3.StringUtils.join(args, ",")));
+    }
+}
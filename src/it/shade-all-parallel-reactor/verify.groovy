@@ -0,0 +1,22 @@
+import java.util.zip.ZipFile
+
+def expectedRelocations = [
+        "module-a": ["SHADY/com/google/gson/Gson.class"],
+        "module-b": ["SHADY/org/apache/commons/lang3/StringUtils.class"],
+        "module-c": ["SHADY/com/google/gson/Gson.class", "SHADY/org/apache/commons/lang3/StringUtils.class"],
+        "module-d": ["SHADY/com/google/gson/Gson.class", "SHADY/org/apache/commons/lang3/StringUtils.class"],
+]
+
+expectedRelocations.each { module, entries ->
+    File shadedJar = new File(basedir, "${module}/target/${module}-1.0.0.jar")
+    assert shadedJar.isFile()
+    new ZipFile(shadedJar).withCloseable { zip ->
+        entries.each { entry -> assert zip.getEntry(entry) != null : "${entry} missing in ${shadedJar}" }
+        assert zip.getEntry("com/google/gson/Gson.class") == null
+        assert zip.getEntry("org/apache/commons/lang3/StringUtils.class") == null
+    }
+}
+
+String buildLog = new File(basedir, "build.log").text
+assert !buildLog.contains("not marked as @threadSafe")
+assert !buildLog.contains("not marked as thread-safe")
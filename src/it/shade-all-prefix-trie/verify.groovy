@@ -0,0 +1,11 @@
+build_jar = "shade-all-prefix-trie-it-1.0.0.jar"
+
+File shadedJar = new File(basedir, "target/${build_jar}")
+assert shadedJar.isFile()
+
+// relocated by the shade plugin through the prefix trie shader (prefixTrieRelocation).
+assert new File(basedir, "build.log").text.contains("relocating with a prefix trie of [")
+new java.util.zip.ZipFile(shadedJar).withCloseable { zip ->
+    assert zip.getEntry("SHADYio/vertx/core/Vertx.class") != null
+    assert !zip.entries().toList().any { it.name.startsWith("io/vertx/core/") }
+}
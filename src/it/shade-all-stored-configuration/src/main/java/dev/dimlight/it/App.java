@@ -0,0 +1,12 @@
+package dev.dimlight.it;
+
+import com.google.gson.Gson;
+
+/**
+ *
+ */
+public class App {
+    public static void main(String[] args) {
+        System.out.println(new Gson().toJson(args));
+    }
+}
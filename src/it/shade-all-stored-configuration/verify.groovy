@@ -0,0 +1,18 @@
+import java.util.jar.JarFile
+
+File storedConfiguration = new File(basedir, "target/umbrellone/shade-plugin-configuration.conf")
+assert storedConfiguration.isFile()
+assert storedConfiguration.text.contains("com.google.gson\tSHADY.com.google.gson")
+
+String buildLog = new File(basedir, "build.log").text
+assert buildLog.contains("reusing the configuration stored in")
+assert buildLog.count("Delegating execution to the shade plugin mojo") == 1
+assert buildLog.contains("Repacking [")
+
+JarFile shadedJar = new JarFile(new File(basedir, "target/shade-all-stored-configuration-it-1.0.0.jar"))
+try {
+    assert shadedJar.getEntry("SHADY/com/google/gson/Gson.class") != null
+    assert shadedJar.getEntry("com/google/gson/Gson.class") == null
+} finally {
+    shadedJar.close()
+}
@@ -0,0 +1,8 @@
+build_jar = "shade-all-up-to-date-it-1.0.0.jar"
+
+File shadedJar = new File(basedir, "target/${build_jar}")
+assert shadedJar.isFile()
+
+String buildLog = new File(basedir, "build.log").text
+assert buildLog.count("Delegating execution to the shade plugin mojo") == 1
+assert buildLog.contains("is up to date, skipping the shade plugin mojo")
@@ -6,4 +6,15 @@ assert originalJar.isFile()
 File shadedJar = new File(basedir, "target/${build_jar}")
 assert shadedJar.isFile()
 
-// TODO look into the content of the shaded stuff!
\ No newline at end of file
+// TODO look into the content of the shaded stuff!
+File report = new File(basedir, "target/umbrellone/report.json")
+assert report.isFile()
+def metrics = new groovy.json.JsonSlurper().parse(report)
+assert metrics.goal == "shade-all"
+assert metrics.jarsScanned > 0 && metrics.bytesRead > 0 && metrics.rules > 0
+assert metrics.phasesMillis.keySet().containsAll(["dependency-graph", "scan", "rules", "shade"])
+assert !metrics.slowestJars.isEmpty()
+
+assert new File(basedir, "build.log").text.contains("umbrellone [shade-all] took ")
+// relocated by the default relocators of the shade plugin.
+assert !new File(basedir, "build.log").text.contains("relocating with a prefix trie of [")
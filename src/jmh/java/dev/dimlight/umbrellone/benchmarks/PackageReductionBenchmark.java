@@ -0,0 +1,87 @@
+package dev.dimlight.umbrellone.benchmarks;
+
+import dev.dimlight.umbrellone.shade.PackageReducer;
+import dev.dimlight.umbrellone.shade.PackageUtils;
+import io.vavr.collection.List;
+import io.vavr.collection.Set;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reduction of the scanned packages to relocation rules: per dependency root packages, then global simplification.
+ *
+ * @author Marco Nicolini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PackageReductionBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int dependencies;
+
+    @Param({"50"})
+    int packagesPerDependency;
+
+    private java.util.List<java.util.List<String>> packagesByDependency;
+    private java.util.List<String> rootPackages;
+    private PackageUtils pkgUtils;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(dependencies);
+        pkgUtils = PackageUtils.of(new SilentLog());
+        packagesByDependency = new ArrayList<>(dependencies);
+        rootPackages = new ArrayList<>();
+        for (int dep = 0; dep < dependencies; dep++) {
+            final java.util.List<String> packages = SyntheticDependencies.packagesOf(dep, packagesPerDependency, random);
+            packagesByDependency.add(packages);
+            // both the roots and some of the packages they contain, so that simplification has work to do.
+            pkgUtils.rootPackages(packages).forEach(rootPackages::add);
+            rootPackages.addAll(packages.subList(0, packages.size() / 10));
+        }
+    }
+
+    @Benchmark
+    public void rootPackages(Blackhole blackhole) {
+        for (java.util.List<String> packages : packagesByDependency) {
+            blackhole.consume(pkgUtils.rootPackages(packages));
+        }
+    }
+
+    @Benchmark
+    public List<String> simplifyPackages() {
+        return pkgUtils.simplifyPackages(rootPackages);
+    }
+
+    @Benchmark
+    public List<String> reducePackages() {
+        final PackageReducer reducer = PackageReducer.of();
+        rootPackages.forEach(reducer::add);
+        return reducer.packages();
+    }
+
+    @Benchmark
+    public Set<String> rootPackagesOfAll() {
+        return pkgUtils.rootPackages(List.ofAll(packagesByDependency).flatMap(p -> p));
+    }
+}
@@ -0,0 +1,112 @@
+package dev.dimlight.umbrellone.benchmarks;
+
+import dev.dimlight.umbrellone.shadeplugin.PrefixTrieRelocator;
+import org.apache.maven.plugins.shade.relocation.Relocator;
+import org.apache.maven.plugins.shade.relocation.SimpleRelocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relocation of class names and paths the way the shade plugin remapper does it (first relocator that can relocate a
+ * name wins), with one SimpleRelocator per rule or with a single {@link PrefixTrieRelocator}.
+ *
+ * @author Marco Nicolini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelocatorLookupBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int rules;
+
+    @Param({"10000"})
+    int names;
+
+    private List<Relocator> simpleRelocators;
+    private List<Relocator> trieRelocator;
+    private List<String> classNames;
+    private List<String> paths;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(rules);
+        final PrefixTrieRelocator trie = new PrefixTrieRelocator();
+        simpleRelocators = new ArrayList<>(rules);
+        final List<String> packages = new ArrayList<>();
+        for (int rule = 0; rule < rules; rule++) {
+            final String pattern = "com.vendor" + (rule % 50) + ".lib" + rule;
+            simpleRelocators.add(new SimpleRelocator(pattern, "shaded." + pattern, null, null));
+            trie.add(pattern, "shaded." + pattern);
+            packages.addAll(SyntheticDependencies.packagesOf(rule, 5, random));
+        }
+        trieRelocator = new ArrayList<>();
+        trieRelocator.add(trie);
+
+        // jars reference the jdk as much as their own classes: half of the names do not match any rule.
+        classNames = new ArrayList<>(names);
+        paths = new ArrayList<>(names);
+        for (int i = 0; i < names; i++) {
+            final String pkg = i % 2 == 0 ? packages.get(random.nextInt(packages.size())) : "java.util.concurrent";
+            final String className = pkg + ".C" + i;
+            classNames.add(className);
+            paths.add(className.replace('.', '/') + ".class");
+        }
+    }
+
+    @Benchmark
+    public void simpleRelocators(Blackhole blackhole) {
+        relocateAll(simpleRelocators, blackhole);
+    }
+
+    @Benchmark
+    public void prefixTrieRelocator(Blackhole blackhole) {
+        relocateAll(trieRelocator, blackhole);
+    }
+
+    private void relocateAll(List<Relocator> relocators, Blackhole blackhole) {
+        for (String className : classNames) {
+            blackhole.consume(relocateClass(relocators, className));
+        }
+        for (String path : paths) {
+            blackhole.consume(relocatePath(relocators, path));
+        }
+    }
+
+    private static String relocateClass(List<Relocator> relocators, String className) {
+        for (Relocator relocator : relocators) {
+            if (relocator.canRelocateClass(className)) {
+                return relocator.relocateClass(className);
+            }
+        }
+        return className;
+    }
+
+    private static String relocatePath(List<Relocator> relocators, String path) {
+        for (Relocator relocator : relocators) {
+            if (relocator.canRelocatePath(path)) {
+                return relocator.relocatePath(path);
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,76 @@
+package dev.dimlight.umbrellone.benchmarks;
+
+import dev.dimlight.umbrellone.shade.PackageUtils;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning of a whole synthetic dependency set, jar sizes vary from tiny to a few thousands entries.
+ *
+ * @author Marco Nicolini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanDependenciesBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int dependencies;
+
+    private File directory;
+    private java.util.List<DependencyNode> nodes;
+    private PackageUtils pkgUtils;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final Random random = new Random(dependencies);
+        directory = Files.createTempDirectory("umbrellone-jmh").toFile();
+        nodes = new ArrayList<>(dependencies);
+        for (int dep = 0; dep < dependencies; dep++) {
+            final File depDirectory = new File(directory, "dep" + dep);
+            depDirectory.mkdirs();
+            final File jar = SyntheticDependencies.jar(depDirectory, 20 + random.nextInt(2_000), random.nextBoolean(), random);
+            nodes.add(SyntheticDependencies.node(SyntheticDependencies.artifact(dep, jar)));
+        }
+        pkgUtils = PackageUtils.of(new SilentLog());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.walk(directory.toPath())
+                .sorted(java.util.Comparator.reverseOrder())
+                .map(java.nio.file.Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @Benchmark
+    public void scanAll(Blackhole blackhole) {
+        for (DependencyNode node : nodes) {
+            blackhole.consume(pkgUtils.scanForPackages(node));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package dev.dimlight.umbrellone.benchmarks;
+
+import dev.dimlight.umbrellone.shade.PackageUtils;
+import io.vavr.collection.Set;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning of a single jar for packages, from a small library up to a fat jar.
+ *
+ * @author Marco Nicolini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanForPackagesBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    int entries;
+
+    @Param({"true", "false"})
+    boolean directoryEntries;
+
+    private File directory;
+    private DependencyNode node;
+    private PackageUtils pkgUtils;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("umbrellone-jmh").toFile();
+        final File jar = SyntheticDependencies.jar(directory, entries, directoryEntries, new Random(entries));
+        node = SyntheticDependencies.node(SyntheticDependencies.artifact(0, jar));
+        pkgUtils = PackageUtils.of(new SilentLog());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.walk(directory.toPath())
+                .sorted(java.util.Comparator.reverseOrder())
+                .map(java.nio.file.Path::toFile)
+                .forEach(File::delete);
+    }
+
+    @Benchmark
+    public Set<String> scanForPackages() {
+        return pkgUtils.scanForPackages(node);
+    }
+}
@@ -0,0 +1,98 @@
+package dev.dimlight.umbrellone.benchmarks;
+
+import dev.dimlight.umbrellone.shade.RelocationRule;
+import dev.dimlight.umbrellone.shade.ShadePluginConfiguration;
+import io.vavr.collection.List;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generators of synthetic but realistically shaped inputs for the benchmarks: jars, package lists and configurations.
+ *
+ * @author Marco Nicolini
+ */
+final class SyntheticDependencies {
+
+    private static final String[] SEGMENTS = {"api", "impl", "internal", "util", "codec", "http", "json", "io", "spi",
+            "handler", "buffer", "channel", "core", "concurrent", "annotation", "config", "stream", "model"};
+
+    private SyntheticDependencies() {}
+
+    /**
+     * @return the package names of a synthetic dependency, sharing a vendor prefix and branching below it.
+     */
+    static java.util.List<String> packagesOf(int dependency, int packageCount, Random random) {
+        final String base = "com.vendor" + (dependency % 50) + ".lib" + dependency;
+        final java.util.List<String> packages = new ArrayList<>(packageCount);
+        for (int i = 0; i < packageCount; i++) {
+            final StringBuilder pkg = new StringBuilder(base);
+            final int depth = 1 + random.nextInt(4);
+            for (int d = 0; d < depth; d++) {
+                pkg.append('.').append(SEGMENTS[random.nextInt(SEGMENTS.length)]);
+            }
+            packages.add(pkg.toString());
+        }
+        return packages;
+    }
+
+    /**
+     * Writes a jar with the given number of class entries (plus manifest and directory entries) spread over packages.
+     */
+    static File jar(File directory, int entries, boolean directoryEntries, Random random) throws IOException {
+        final File jar = new File(directory, "synthetic-" + entries + (directoryEntries ? "-dirs" : "") + ".jar");
+        final java.util.List<String> packages = packagesOf(entries, Math.max(1, entries / 40), random);
+        final java.util.Set<String> writtenDirectories = new java.util.HashSet<>();
+
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            out.write("Manifest-Version: 1.0\n".getBytes("UTF-8"));
+            out.closeEntry();
+
+            for (int i = 0; i < entries; i++) {
+                final String dir = packages.get(i % packages.size()).replace('.', '/');
+                if (directoryEntries && writtenDirectories.add(dir)) {
+                    out.putNextEntry(new ZipEntry(dir + "/"));
+                    out.closeEntry();
+                }
+                out.putNextEntry(new ZipEntry(dir + "/Class" + i + ".class"));
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    static Artifact artifact(int dependency, File file) {
+        final DefaultArtifact artifact = new DefaultArtifact("com.vendor" + (dependency % 50), "lib" + dependency,
+                "1.0." + dependency, Artifact.SCOPE_COMPILE, "jar", null, new DefaultArtifactHandler("jar"));
+        artifact.setFile(file);
+        return artifact;
+    }
+
+    static DependencyNode node(Artifact artifact) {
+        return new DefaultDependencyNode(null, artifact, null, null, null);
+    }
+
+    static ShadePluginConfiguration configuration(int dependencies, int rulesPerDependency) {
+        final java.util.List<Artifact> artifacts = new ArrayList<>(dependencies);
+        final java.util.List<RelocationRule> rules = new ArrayList<>(dependencies * rulesPerDependency);
+        for (int dep = 0; dep < dependencies; dep++) {
+            artifacts.add(artifact(dep, null));
+            for (int r = 0; r < rulesPerDependency; r++) {
+                final String pkg = "com.vendor" + (dep % 50) + ".lib" + dep + "." + SEGMENTS[r % SEGMENTS.length];
+                rules.add(RelocationRule.of(pkg, "relocated." + pkg));
+            }
+        }
+        return ShadePluginConfiguration.of(List.ofAll(artifacts), List.ofAll(rules));
+    }
+}
@@ -0,0 +1,50 @@
+package dev.dimlight.umbrellone.benchmarks;
+
+import dev.dimlight.umbrellone.shade.ShadePluginConfiguration;
+import dev.dimlight.umbrellone.shade.Xml;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of the generated configuration as a maven-shade-plugin xml fragment.
+ *
+ * @author Marco Nicolini
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlRenderBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int dependencies;
+
+    @Param({"3"})
+    int rulesPerDependency;
+
+    private ShadePluginConfiguration conf;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        conf = SyntheticDependencies.configuration(dependencies, rulesPerDependency);
+    }
+
+    @Benchmark
+    public String render() {
+        return Xml.render(conf);
+    }
+}
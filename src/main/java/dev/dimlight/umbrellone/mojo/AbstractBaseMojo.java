@@ -2,11 +2,19 @@ package dev.dimlight.umbrellone.mojo;
 
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import dev.dimlight.umbrellone.shade.ConfigurationStore;
+import dev.dimlight.umbrellone.shade.DependencyGraphCache;
+import dev.dimlight.umbrellone.shade.ExecutionMetrics;
+import dev.dimlight.umbrellone.shade.JvmScanCache;
+import dev.dimlight.umbrellone.shade.PackageIndexCache;
+import dev.dimlight.umbrellone.shade.ShadePluginConfiguration;
+import dev.dimlight.umbrellone.shade.ShadePluginConfigurationGenerator;
 import dev.dimlight.umbrellone.util.MoreStrings;
+import io.vavr.control.Option;
 import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
-import org.apache.maven.artifact.resolver.filter.ExcludesArtifactFilter;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Component;
@@ -14,15 +22,24 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
 import org.apache.maven.shared.dependency.graph.DependencyGraphBuilder;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
 
 import javax.lang.model.SourceVersion;
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 /**
+ * Base of the umbrellone mojos.
+ * <p>
+ * The mojos are thread safe and can run concurrently for different modules of a parallel build (-T): every execution
+ * works on its own project and session, the helpers of the shade package keep no mutable static state, and what is
+ * shared between executions (the session scan cache, the persistent package index cache) is safe for concurrent use.
+ *
  * @author Marco Nicolini
  */
 public abstract class AbstractBaseMojo extends AbstractMojo {
@@ -51,10 +68,77 @@ public abstract class AbstractBaseMojo extends AbstractMojo {
      *   &lt;/excludes&gt;
      * &lt;/artifactSet&gt;
      * </pre>
+     *
+     * An excluded artifact is left out together with the dependencies it brings, while the includes select among all
+     * the dependencies (when there are no includes, everything that is not excluded is included).
      */
     @Parameter
     private ArtifactSet artifactSet;
 
+    /**
+     * Number of threads used to scan the dependency jars for packages. Jars are scanned largest first, the generated
+     * configuration is the same as the one of a serial scan. A value of 1 scans serially, a value of 0 or less uses one
+     * thread per available core.
+     */
+    @Parameter(property = "scanParallelism", defaultValue = "0")
+    protected int scanParallelism;
+
+    /**
+     * Directory of a persistent cache of the packages found in each dependency, so that unchanged dependencies are not
+     * scanned again by later builds. The directory can be shared by concurrent builds. The cache is disabled if not set.
+     */
+    @Parameter(property = "packageIndexCacheDirectory")
+    protected File packageIndexCacheDirectory;
+
+    /**
+     * Cap (in estimated bytes of heap) of the in memory cache of the packages found in each dependency, shared by all
+     * the builds of the same JVM: with a long lived daemon (mvnd) unchanged dependencies are not scanned again by later
+     * builds. The statistics of the cache are logged at debug level. A value of 0 or less disables the cache.
+     */
+    @Parameter(property = "jvmScanCacheMaxBytes", defaultValue = "67108864")
+    protected long jvmScanCacheMaxBytes;
+
+    /**
+     * Stores the dependency graph of the project in {@link #dependencyGraphCacheFile}, and reuses it instead of
+     * resolving the dependencies again while the declared dependencies, the dependency management, the active profiles
+     * and the artifact set do not change and the files of the dependencies are still the same. Version ranges are not
+     * resolved again until then.
+     */
+    @Parameter(property = "cacheDependencyGraph", defaultValue = "false")
+    protected boolean cacheDependencyGraph;
+
+    /**
+     * The file the dependency graph is stored in, see {@link #cacheDependencyGraph}.
+     */
+    @Parameter(property = "dependencyGraphCacheFile", defaultValue = "${project.build.directory}/umbrellone/dependency-graph.txt", required = true)
+    protected File dependencyGraphCacheFile;
+
+    /**
+     * File storing the last generated configuration along with the fingerprint of its inputs (dependencies, relocation
+     * prefix, artifact set and plugin version). Goals that can reuse a configuration load it from here when the inputs
+     * did not change: it can be cached between CI jobs to skip the dependency scan in later stages.
+     */
+    @Parameter(property = "storedConfigurationFile", defaultValue = "${project.build.directory}/umbrellone/shade-plugin-configuration.conf", required = true)
+    protected File storedConfigurationFile;
+
+    /**
+     * The version of this plugin, part of the fingerprint of a stored configuration.
+     */
+    @Parameter(defaultValue = "${plugin.version}", readonly = true)
+    protected String pluginVersion;
+
+    /**
+     * JSON report of the timings and of the I/O of the execution, a one line summary is also logged.
+     */
+    @Parameter(property = "metricsReportFile", defaultValue = "${project.build.directory}/umbrellone/report.json", required = true)
+    protected File metricsReportFile;
+
+    /**
+     * Number of jar scans detailed in the metrics report, the slowest first.
+     */
+    @Parameter(property = "metricsSlowestJars", defaultValue = "10")
+    protected int metricsSlowestJars;
+
     /**
      * The current Maven session.
      */
@@ -73,16 +157,32 @@ public abstract class AbstractBaseMojo extends AbstractMojo {
     @Parameter(defaultValue = "${reactorProjects}", readonly = true, required = true)
     protected List<MavenProject> reactorProjects;
 
+    @Parameter(defaultValue = "${mojoExecution}", readonly = true, required = true)
+    protected MojoExecution mojoExecution;
+
     @Component
     protected MavenProjectHelper projectHelper;
 
     @Component
     protected DependencyGraphBuilder dependencyGraphBuilder;
 
+    /**
+     * Timings and counters of the current execution.
+     */
+    protected ExecutionMetrics metrics;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         validateConfiguration();
+        metrics = ExecutionMetrics.start(mojoExecution.getGoal());
         doExecute();
+
+        metrics.logSummary(getLog());
+        try {
+            metrics.writeReport(metricsReportFile, metricsSlowestJars);
+        } catch (IOException e) {
+            getLog().warn("Unable to write the metrics report [" + metricsReportFile + "]", e);
+        }
     }
 
     /**
@@ -94,14 +194,126 @@ public abstract class AbstractBaseMojo extends AbstractMojo {
      * @return the correct artifact filter to use in generating the configuration of the shade plugin
      */
     protected ArtifactFilter getArtifactFilter() {
-        final ArtifactFilter excludingArtifactFilter = artifactSet != null ? new ExcludesArtifactFilter(new ArrayList<>(artifactSet.getExcludes())) : ArtifactFilters.INCLUDE_ALL;
+        final ArtifactFilter excludingArtifactFilter = artifactSet != null ?
+                ArtifactFilters.excluding(ArtifactMatcher.of(artifactSet.getExcludes())) : ArtifactFilters.INCLUDE_ALL;
 
         // combine the (not-configurable) exclusion of test and non-jar artifacts, with the user provided excludes.
         return ArtifactFilters.and(ArtifactFilters.NOT_TEST_NOR_JAR, excludingArtifactFilter);
     }
 
-    private void validateConfiguration() throws MojoFailureException {
+    /**
+     * Unlike the excludes, which prune the dependency graph while it is built, the includes select among all the
+     * collected dependencies: an included artifact is found even if it only comes through a dependency that is not.
+     *
+     * @return the filter of the user provided includes.
+     */
+    protected ArtifactFilter getIncludedArtifactFilter() {
+        return artifactSet != null ?
+                ArtifactFilters.including(ArtifactMatcher.of(artifactSet.getIncludes())) : ArtifactFilters.INCLUDE_ALL;
+    }
+
+    /**
+     * @return a description of the user provided artifact set, stable across executions.
+     */
+    protected String describeArtifactSet() {
+        if (artifactSet == null) {
+            return "";
+        }
+        final String excludes = "excludes=" + new TreeSet<>(artifactSet.getExcludes());
+        return artifactSet.getIncludes().isEmpty() ? excludes : excludes + ",includes=" + new TreeSet<>(artifactSet.getIncludes());
+    }
+
+    /**
+     * Generates the configuration of the shade plugin for the project and stores it in {@link #storedConfigurationFile}.
+     *
+     * @param reuseStored if true and the stored configuration was generated from the same inputs, it is returned
+     *                    without scanning the dependencies.
+     * @return the configuration of the shade plugin.
+     */
+    protected ShadePluginConfiguration generateConfiguration(boolean reuseStored) throws MojoExecutionException {
+        final ShadePluginConfigurationGenerator confGen = getConfigurationGenerator();
+
+        final io.vavr.collection.List<DependencyNode> dependencies = confGen.collectDependencies(getArtifactFilter(), getIncludedArtifactFilter());
+        final File localRepository = session.getLocalRepository() != null ? new File(session.getLocalRepository().getBasedir()) : null;
+        final String inputs = ConfigurationStore.fingerprint(dependencies, localRepository,
+                pluginVersion, relocationPrefix, describeArtifactSet());
+
+        final ConfigurationStore store = ConfigurationStore.of(getLog(), storedConfigurationFile);
+        if (reuseStored) {
+            final Option<ShadePluginConfiguration> stored;
+            try (ExecutionMetrics.Phase ignored = metrics.phase("load-stored-configuration")) {
+                stored = store.load(inputs, dependencies);
+            }
+            if (stored.isDefined()) {
+                getLog().info("reusing the configuration stored in [" + storedConfigurationFile + "], dependencies were not scanned");
+                metrics.setRules(stored.get().getRelocationRules().size());
+                return stored.get();
+            }
+        }
+
+        final ShadePluginConfiguration conf = confGen.generateShadePluginConfiguration(dependencies, relocationPrefix);
+        store.save(inputs, conf);
+        return conf;
+    }
+
+    /**
+     * @return the generator of the configuration of the shade plugin, sharing the scan caches of this execution.
+     */
+    protected ShadePluginConfigurationGenerator getConfigurationGenerator() {
+        return new ShadePluginConfigurationGenerator(getLog(), session, project,
+                dependencyGraphBuilder, io.vavr.collection.List.ofAll(reactorProjects), getScanParallelism(), getPackageIndexCache(), getJvmScanCache(), getDependencyGraphCache(), metrics);
+    }
+
+    /**
+     * @return the number of threads to use for scanning dependency jars, resolving non-positive values to the number
+     *         of available cores.
+     */
+    protected int getScanParallelism() {
+        return scanParallelism > 0 ? scanParallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return the persistent cache of the packages found in dependencies, disabled if no directory is configured.
+     */
+    protected PackageIndexCache getPackageIndexCache() {
+        return PackageIndexCache.of(getLog(), packageIndexCacheDirectory);
+    }
+
+    /**
+     * @return the cache of the dependency graph of the project, disabled unless {@link #cacheDependencyGraph} is set.
+     */
+    protected DependencyGraphCache getDependencyGraphCache() {
+        // the graph is pruned by the whole artifact filter, its fixed part included.
+        return DependencyGraphCache.of(getLog(), cacheDependencyGraph ? dependencyGraphCacheFile : null, pluginVersion,
+                session, project, reactorProjects, "NOT_TEST_NOR_JAR;" + describeArtifactSet());
+    }
+
+    /**
+     * @return the in memory cache of the packages found in dependencies shared by all the builds of this JVM.
+     */
+    protected JvmScanCache getJvmScanCache() {
+        return JvmScanCache.of(jvmScanCacheMaxBytes);
+    }
+
+    /**
+     * Validates the configuration of the mojo before anything is scanned, subclasses add the checks of their own
+     * parameters.
+     */
+    protected void validateConfiguration() throws MojoFailureException {
         validatePackagePrefix();
+        validateArtifactSet();
+    }
+
+    private void validateArtifactSet() throws MojoFailureException {
+        if (artifactSet == null) {
+            return;
+        }
+        try {
+            ArtifactMatcher.of(artifactSet.getIncludes());
+            ArtifactMatcher.of(artifactSet.getExcludes());
+        } catch (IllegalArgumentException e) {
+            throw new MojoFailureException("Artifact set is invalid: " + e.getMessage(), e);
+        }
     }
 
     private void validatePackagePrefix() throws MojoFailureException {
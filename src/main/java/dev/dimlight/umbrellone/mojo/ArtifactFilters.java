@@ -17,6 +17,20 @@ public class ArtifactFilters {
         return artifact -> a.include(artifact) && b.include(artifact);
     }
 
+    /**
+     * @return a filter excluding the artifacts matched by the given matcher.
+     */
+    public static ArtifactFilter excluding(ArtifactMatcher matcher) {
+        return matcher.isEmpty() ? INCLUDE_ALL : artifact -> !matcher.matches(artifact);
+    }
+
+    /**
+     * @return a filter including only the artifacts matched by the given matcher, or all of them if it has no patterns.
+     */
+    public static ArtifactFilter including(ArtifactMatcher matcher) {
+        return matcher.isEmpty() ? INCLUDE_ALL : matcher::matches;
+    }
+
     public static ArtifactFilter or(ArtifactFilter a, ArtifactFilter b) {
         return artifact -> a.include(artifact) || b.include(artifact);
     }
@@ -0,0 +1,212 @@
+package dev.dimlight.umbrellone.mojo;
+
+import com.google.common.base.Splitter;
+import org.apache.maven.artifact.Artifact;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Matches artifacts against <code>groupId:artifactId:type:classifier</code> patterns (see {@link ArtifactSet}), where
+ * each part can contain the '*' and '?' wildcards.
+ * <p>
+ * Patterns are compiled once and indexed by the literal prefix of their groupId (the whole groupId when it has no
+ * wildcards) and then by artifactId, so that matching an artifact only evaluates the few patterns that can match it,
+ * however many patterns there are.
+ *
+ * @author Marco Nicolini
+ */
+public class ArtifactMatcher {
+
+    private static final Splitter PARTS = Splitter.on(':');
+
+    // patterns by the literal prefix of their groupId, and the distinct lengths of those prefixes.
+    private final Map<String, GroupPatterns> byGroupPrefix = new HashMap<>();
+    private final int[] groupPrefixLengths;
+    private final boolean empty;
+
+    private ArtifactMatcher(Collection<String> patterns) {
+        final TreeSet<Integer> prefixLengths = new TreeSet<>();
+        for (String pattern : patterns) {
+            final ArtifactPattern compiled = ArtifactPattern.of(pattern);
+            byGroupPrefix.computeIfAbsent(compiled.groupPrefix, prefix -> new GroupPatterns()).add(compiled);
+            prefixLengths.add(compiled.groupPrefix.length());
+        }
+        this.groupPrefixLengths = prefixLengths.stream().mapToInt(Integer::intValue).toArray();
+        this.empty = patterns.isEmpty();
+    }
+
+    /**
+     * @param patterns <code>groupId[:artifactId[:type[:classifier]]]</code> patterns, where
+     *                 <code>groupId:artifactId:classifier</code> stands for <code>groupId:artifactId:*:classifier</code>
+     */
+    public static ArtifactMatcher of(Collection<String> patterns) {
+        return new ArtifactMatcher(Objects.requireNonNull(patterns));
+    }
+
+    /**
+     * @return true if there are no patterns (so that nothing matches).
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * @return true if at least one of the patterns matches the given artifact.
+     */
+    public boolean matches(Artifact artifact) {
+        final String groupId = artifact.getGroupId();
+        for (int prefixLength : groupPrefixLengths) {
+            if (prefixLength > groupId.length()) {
+                break;
+            }
+            final GroupPatterns candidates = byGroupPrefix.get(groupId.substring(0, prefixLength));
+            if (candidates != null && candidates.matches(artifact)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The patterns sharing the same groupId prefix, indexed by artifactId when it has no wildcards.
+     */
+    private static class GroupPatterns {
+        final Map<String, List<ArtifactPattern>> byArtifactId = new HashMap<>();
+        final List<ArtifactPattern> anyArtifactId = new ArrayList<>();
+
+        void add(ArtifactPattern pattern) {
+            if (pattern.artifactId.isLiteral()) {
+                byArtifactId.computeIfAbsent(pattern.artifactId.literal, id -> new ArrayList<>()).add(pattern);
+            } else {
+                anyArtifactId.add(pattern);
+            }
+        }
+
+        boolean matches(Artifact artifact) {
+            final List<ArtifactPattern> sameArtifactId = byArtifactId.get(artifact.getArtifactId());
+            if (sameArtifactId != null) {
+                for (ArtifactPattern pattern : sameArtifactId) {
+                    if (pattern.matches(artifact)) {
+                        return true;
+                    }
+                }
+            }
+            for (ArtifactPattern pattern : anyArtifactId) {
+                if (pattern.matches(artifact)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class ArtifactPattern {
+        final String groupPrefix;
+        final Part groupId;
+        final Part artifactId;
+        final Part type;
+        final Part classifier;
+
+        private ArtifactPattern(Part groupId, Part artifactId, Part type, Part classifier) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.type = type;
+            this.classifier = classifier;
+            this.groupPrefix = groupId.literalPrefix();
+        }
+
+        static ArtifactPattern of(String pattern) {
+            final List<String> parts = PARTS.trimResults().splitToList(pattern.trim());
+            switch (parts.size()) {
+                case 1:
+                    return new ArtifactPattern(Part.of(parts.get(0)), Part.ANY, Part.ANY, Part.ANY);
+                case 2:
+                    return new ArtifactPattern(Part.of(parts.get(0)), Part.of(parts.get(1)), Part.ANY, Part.ANY);
+                case 3:
+                    return new ArtifactPattern(Part.of(parts.get(0)), Part.of(parts.get(1)), Part.ANY, Part.of(parts.get(2)));
+                case 4:
+                    return new ArtifactPattern(Part.of(parts.get(0)), Part.of(parts.get(1)), Part.of(parts.get(2)), Part.of(parts.get(3)));
+                default:
+                    throw new IllegalArgumentException("Invalid artifact pattern [" + pattern + "], expected groupId:artifactId:type:classifier");
+            }
+        }
+
+        boolean matches(Artifact artifact) {
+            return groupId.matches(artifact.getGroupId()) &&
+                    artifactId.matches(artifact.getArtifactId()) &&
+                    type.matches(artifact.getType()) &&
+                    classifier.matches(artifact.getClassifier() != null ? artifact.getClassifier() : "");
+        }
+    }
+
+    /**
+     * A part of a pattern: either a literal, or a regular expression translated from the wildcards.
+     */
+    private static class Part {
+        static final Part ANY = new Part("*", Pattern.compile(".*"));
+
+        final String literal;
+        final Pattern regex;
+
+        private Part(String literal, Pattern regex) {
+            this.literal = literal;
+            this.regex = regex;
+        }
+
+        /**
+         * @param part the part of a pattern, an empty part only matches an empty value (i.e. no classifier)
+         */
+        static Part of(String part) {
+            if (part.equals("*")) {
+                return ANY;
+            }
+            if (part.indexOf('*') < 0 && part.indexOf('?') < 0) {
+                return new Part(part, null);
+            }
+            final StringBuilder regex = new StringBuilder();
+            int literalStart = 0;
+            for (int i = 0; i <= part.length(); i++) {
+                final char c = i < part.length() ? part.charAt(i) : '*';
+                if (c == '*' || c == '?') {
+                    if (i > literalStart) {
+                        regex.append(Pattern.quote(part.substring(literalStart, i)));
+                    }
+                    if (i < part.length()) {
+                        regex.append(c == '*' ? ".*" : ".");
+                    }
+                    literalStart = i + 1;
+                }
+            }
+            return new Part(part, Pattern.compile(regex.toString()));
+        }
+
+        boolean isLiteral() {
+            return regex == null;
+        }
+
+        /**
+         * @return the characters before the first wildcard.
+         */
+        String literalPrefix() {
+            if (isLiteral()) {
+                return literal;
+            }
+            int end = 0;
+            while (end < literal.length() && literal.charAt(end) != '*' && literal.charAt(end) != '?') {
+                end++;
+            }
+            return literal.substring(0, end);
+        }
+
+        boolean matches(String value) {
+            return this == ANY || (isLiteral() ? literal.equals(value) : regex.matcher(value).matches());
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package dev.dimlight.umbrellone.mojo;
 
+import java.util.Collections;
 import java.util.Set;
 
 /**
@@ -9,9 +10,14 @@ import java.util.Set;
  */
 public class ArtifactSet {
 
+    private Set<String> includes;
     private Set<String> excludes;
 
+    public Set<String> getIncludes() {
+        return includes != null ? includes : Collections.emptySet();
+    }
+
     public Set<String> getExcludes() {
-        return excludes;
+        return excludes != null ? excludes : Collections.emptySet();
     }
 }
\ No newline at end of file
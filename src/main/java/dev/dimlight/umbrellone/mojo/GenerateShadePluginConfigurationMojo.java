@@ -1,31 +1,48 @@
 package dev.dimlight.umbrellone.mojo;
 
 import dev.dimlight.umbrellone.shade.ShadePluginConfiguration;
-import dev.dimlight.umbrellone.shade.ShadePluginConfigurationGenerator;
 import dev.dimlight.umbrellone.shade.Xml;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * Goal that inspects all dependencies and produces a configuration for the maven-shade-plugin relocation rules.
+ * <p>
+ * Besides the xml fragment, the configuration is stored in a machine-readable form that later executions of
+ * {@code shade-all} reuse as long as the dependencies did not change.
  *
  * @author Marco Nicolini
  */
-@Mojo( name = "generate-conf", defaultPhase = LifecyclePhase.PROCESS_SOURCES )
+@Mojo( name = "generate-conf", defaultPhase = LifecyclePhase.PROCESS_SOURCES, threadSafe = true )
 public class GenerateShadePluginConfigurationMojo extends AbstractBaseMojo {
 
+    /**
+     * The file the generated maven-shade-plugin configuration fragment is written to.
+     */
+    @Parameter(property = "generateConfOutputFile", defaultValue = "${project.build.directory}/umbrellone/shade-plugin-configuration.xml", required = true)
+    protected File generateConfOutputFile;
+
     @Override
     public void doExecute() throws MojoExecutionException, MojoFailureException {
         final Log log = getLog();
 
-        final ShadePluginConfigurationGenerator confGen = new ShadePluginConfigurationGenerator(log, session, project,
-                dependencyGraphBuilder, io.vavr.collection.List.ofAll(reactorProjects));
+        // always scans: this is the goal that (re)generates the stored configuration for the later ones.
+        final ShadePluginConfiguration conf = generateConfiguration(false);
 
-        final ShadePluginConfiguration conf = confGen.generateShadePluginConfiguration(getArtifactFilter(), relocationPrefix);
+        try {
+            Xml.write(conf, generateConfOutputFile);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write the generated configuration", e);
+        }
 
-        log.info("generated relocate configuration: \n\n" + Xml.render(conf));
+        log.info("generated configuration with [" + conf.getIncludedArtifacts().size() + "] includes and [" +
+                conf.getRelocationRules().size() + "] relocations written to [" + generateConfOutputFile + "]");
     }
 }
@@ -1,13 +1,32 @@
 package dev.dimlight.umbrellone.mojo;
 
+import dev.dimlight.umbrellone.shade.ClassReachability;
+import dev.dimlight.umbrellone.shade.ExecutionMetrics;
+import dev.dimlight.umbrellone.shade.Fingerprint;
+import dev.dimlight.umbrellone.shade.MinimizationReport;
+import dev.dimlight.umbrellone.shade.NativeShader;
+import dev.dimlight.umbrellone.shade.PackageJarIndex;
 import dev.dimlight.umbrellone.shade.ShadePluginConfiguration;
 import dev.dimlight.umbrellone.shade.ShadePluginConfigurationGenerator;
+import dev.dimlight.umbrellone.shade.ShadedJarWriter;
+import dev.dimlight.umbrellone.shadeplugin.PrefixTrieShader;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.model.Plugin;
 import org.apache.maven.plugin.BuildPluginManager;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.twdata.maven.mojoexecutor.MojoExecutor.*;
 
 /**
@@ -15,7 +34,7 @@ import static org.twdata.maven.mojoexecutor.MojoExecutor.*;
  *
  * @author Marco Nicolini
  */
-@Mojo(name = "shade-all", defaultPhase = LifecyclePhase.PACKAGE, requiresDependencyResolution = ResolutionScope.RUNTIME)
+@Mojo(name = "shade-all", defaultPhase = LifecyclePhase.PACKAGE, requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
 public class ShadeAllMojo extends AbstractBaseMojo {
 
     /**
@@ -24,43 +43,272 @@ public class ShadeAllMojo extends AbstractBaseMojo {
     @Parameter(property = "shadePluginVersion", defaultValue = "3.2.1", required = true)
     protected String shadePluginVersion;
 
+    /**
+     * Skips the delegation to the shade plugin when the dependencies, the generated configuration, the shade plugin
+     * version and the options of the shaded jar (i.e. {@link #repackShadedJar}) did not change since the last execution
+     * and the main artifact is still the untouched shaded jar.
+     */
+    @Parameter(property = "upToDateCheck", defaultValue = "false")
+    protected boolean upToDateCheck;
+
+    /**
+     * Shades in process instead of delegating to the shade plugin: the project and the included artifacts are relocated
+     * in parallel and written to a jar attached to the project with the {@link #shadedClassifierName} classifier (the
+     * main artifact is left untouched).
+     */
+    @Parameter(property = "nativeShading", defaultValue = "false")
+    protected boolean nativeShading;
+
+    /**
+     * The classifier of the jar attached by the native shading.
+     */
+    @Parameter(property = "shadedClassifierName", defaultValue = "shaded", required = true)
+    protected String shadedClassifierName;
+
+    /**
+     * The directory where the native shading caches the relocated entries of each dependency, keyed by the checksum of
+     * the dependency and by the relocation rules: unchanged dependencies are not relocated again, their cached entries
+     * are copied in the shaded jar. Disabled if not set.
+     */
+    @Parameter(property = "relocatedFragmentCacheDirectory")
+    protected File relocatedFragmentCacheDirectory;
+
+    /**
+     * Drops from the native shading output the classes of the included artifacts that are not reachable from the
+     * classes of the project (directly or through other reachable classes, see {@link #minimizeKeep}), and writes the
+     * classes and bytes removed from each artifact to {@link #minimizationReportFile}. Requires {@link #nativeShading}.
+     */
+    @Parameter(property = "minimizeClasses", defaultValue = "false")
+    protected boolean minimizeClasses;
+
+    /**
+     * Classes kept by {@link #minimizeClasses} even if not referenced, i.e. the ones only loaded by reflection:
+     * "a.b.C" for a class, "a.b.*" for the classes of a package and "a.b.**" for the classes of a package and of its
+     * subpackages. The providers listed in <code>META-INF/services</code> are kept as soon as their service is.
+     */
+    @Parameter
+    protected List<String> minimizeKeep = new ArrayList<>();
+
+    /**
+     * The file the classes and bytes removed by {@link #minimizeClasses} are written to, one line per artifact.
+     */
+    @Parameter(property = "minimizationReportFile", defaultValue = "${project.build.directory}/umbrellone/minimization-report.txt", required = true)
+    protected File minimizationReportFile;
+
+    /**
+     * Reuses the configuration stored by a previous execution of generate-conf or shade-all (see
+     * {@link #storedConfigurationFile}) when it was generated from the same inputs, instead of scanning the dependencies.
+     * Disabled by default: meant for pipelines generating the configuration in an earlier stage.
+     */
+    @Parameter(property = "reuseStoredConfiguration", defaultValue = "false")
+    protected boolean reuseStoredConfiguration;
+
+    /**
+     * The deflate level of the jars written by the plugin (the natively shaded one, or the delegated output when
+     * {@link #repackShadedJar} is set): from 0 (entries are stored) to 9, -1 for the default level of deflate.
+     */
+    @Parameter(property = "compressionLevel", defaultValue = "-1")
+    protected int compressionLevel;
+
+    /**
+     * Stores, instead of deflating them again, the entries holding already compressed data (images, nested archives...).
+     */
+    @Parameter(property = "storeCompressedEntries", defaultValue = "true")
+    protected boolean storeCompressedEntries;
+
+    /**
+     * Rewrites the jar produced by the shade plugin with the plugin jar writer ({@link #compressionLevel},
+     * {@link #storeCompressedEntries}, parallel deflate and byte-identical output for identical inputs).
+     */
+    @Parameter(property = "repackShadedJar", defaultValue = "false")
+    protected boolean repackShadedJar;
+
+    /**
+     * Makes the shade plugin relocate with a single prefix trie holding all the relocation rules, instead of trying the
+     * rules one after the other for every class, resource and string constant. Umbrellone is added as a dependency of
+     * the shade plugin, and its shader (<code>shaderHint</code> "umbrellone") compiles the rules before delegating to
+     * the default one.
+     */
+    @Parameter(property = "prefixTrieRelocation", defaultValue = "false")
+    protected boolean prefixTrieRelocation;
+
+    /**
+     * Adds a <code>META-INF/INDEX.LIST</code> jar index of its packages to the shaded jar, and writes the index of the
+     * (relocated) packages with the artifacts contributing them to {@link #packageIndexFile}.
+     */
+    @Parameter(property = "packageIndex", defaultValue = "false")
+    protected boolean packageIndex;
+
+    /**
+     * The file the package index is written to, see {@link #packageIndex}.
+     */
+    @Parameter(property = "packageIndexFile", defaultValue = "${project.build.directory}/umbrellone/package-index.txt", required = true)
+    protected File packageIndexFile;
+
     @Component
     private BuildPluginManager pluginManager;
 
+    @Override
+    protected void validateConfiguration() throws MojoFailureException {
+        super.validateConfiguration();
+        if (minimizeClasses && !nativeShading) {
+            throw new MojoFailureException("minimizeClasses requires nativeShading");
+        }
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            throw new MojoFailureException("Compression level must be between -1 (the default) and 9, was [" + compressionLevel + "]");
+        }
+    }
+
     @Override
     public void doExecute() throws MojoExecutionException, MojoFailureException {
         final Log log = getLog();
 
-        final ShadePluginConfigurationGenerator confGen = new ShadePluginConfigurationGenerator(log, session, project,
-                dependencyGraphBuilder, io.vavr.collection.List.ofAll(reactorProjects));
+        final ShadePluginConfiguration conf = generateConfiguration(reuseStoredConfiguration);
+
+        if (nativeShading) {
+            shadeNatively(conf);
+            return;
+        }
+
+        final UpToDateCheck upToDate = UpToDateCheck.of(log, new File(project.getBuild().getDirectory(), "umbrellone/shade-all.state"));
+        final String inputs = Fingerprint.create()
+                .add(shadePluginVersion)
+                .add("prefixTrieRelocation=" + prefixTrieRelocation)
+                .add("repackShadedJar=" + repackShadedJar)
+                .add("compressionLevel=" + compressionLevel)
+                .add("storeCompressedEntries=" + storeCompressedEntries)
+                .add("packageIndex=" + packageIndex)
+                .add(packageIndex ? packageIndexFile.getAbsolutePath() : "")
+                .add(conf)
+                .hash();
 
-        final ShadePluginConfiguration conf = confGen.generateShadePluginConfiguration(getArtifactFilter(), relocationPrefix);
+        // the index file is written after the shaded jar: its size and modification time are not part of the inputs.
+        final boolean packageIndexWritten = !packageIndex || packageIndexFile.isFile();
+        if (upToDateCheck && packageIndexWritten && upToDate.isUpToDate(inputs, project.getArtifact().getFile())) {
+            final File projectFile = upToDate.getRecordedProjectFile();
+            if (projectFile != null && projectFile.isFile()) {
+                project.setFile(projectFile);
+            }
+            log.info("Shaded artifact [" + project.getArtifact().getFile() + "] is up to date, skipping the shade plugin mojo");
+            return;
+        }
+        upToDate.invalidate();
 
         log.info("Delegating execution to the shade plugin mojo...");
-        executeMojo(
-                plugin(
-                        groupId("org.apache.maven.plugins"),
-                        artifactId("maven-shade-plugin"),
-                        version(shadePluginVersion)
-                ),
-                goal("shade"),
-                configuration(
-                        element("artifactSet",
-                                element("includes", conf.getIncludedArtifacts()
-                                        .map(a -> element("include", a.getGroupId() + ":" + a.getArtifactId()))
-                                    .toJavaArray(Element[]::new))),
-                        element("relocations", conf.getRelocationRules()
-                                .map(rr -> element("relocation",
-                                                element("pattern", rr.pattern),
-                                                element("shadedPattern", rr.shadedPattern)))
-                                            .toJavaArray(Element[]::new))
-                ),
-                executionEnvironment(
-                        project,
-                        session,
-                        pluginManager
-                )
-        );
+        try (ExecutionMetrics.Phase ignored = metrics.phase("shade")) {
+            executeMojo(
+                    shadePlugin(),
+                    goal("shade"),
+                    configuration(
+                            element("shaderHint", prefixTrieRelocation ? PrefixTrieShader.ROLE_HINT : "default"),
+                            element("artifactSet",
+                                    element("includes", conf.getIncludedArtifacts()
+                                            .map(a -> a.getGroupId() + ":" + a.getArtifactId())
+                                            .distinct()
+                                            .map(include -> element("include", include))
+                                        .toJavaArray(Element[]::new))),
+                            element("relocations", conf.getRelocationRules()
+                                    .map(rr -> element("relocation",
+                                                    element("pattern", rr.pattern),
+                                                    element("shadedPattern", rr.shadedPattern)))
+                                                .toJavaArray(Element[]::new))
+                    ),
+                    executionEnvironment(
+                            project,
+                            session,
+                            pluginManager
+                    )
+            );
+        }
         log.info("Delegated execution to the shade plugin mojo ended");
+
+        final File shadedJar = project.getArtifact().getFile();
+        if (repackShadedJar && shadedJar != null && shadedJar.isFile()) {
+            log.info("Repacking [" + shadedJar + "]...");
+            try (ExecutionMetrics.Phase ignored = metrics.phase("repack")) {
+                ShadedJarWriter.rewrite(shadedJar, compressionLevel, storeCompressedEntries, getScanParallelism());
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to repack [" + shadedJar + "]", e);
+            }
+        }
+        if (packageIndex && shadedJar != null && shadedJar.isFile()) {
+            indexPackages(conf, shadedJar);
+        }
+
+        if (upToDateCheck && project.getArtifact().getFile() != null) {
+            upToDate.record(inputs, project.getArtifact().getFile(), project.getFile());
+        }
+    }
+
+    private void shadeNatively(ShadePluginConfiguration conf) throws MojoExecutionException {
+        final File projectJar = project.getArtifact().getFile();
+        if (projectJar == null || !projectJar.isFile()) {
+            throw new MojoExecutionException("The project main artifact is not available, native shading needs to run in the package phase");
+        }
+
+        final File output = new File(project.getBuild().getDirectory(),
+                project.getBuild().getFinalName() + "-" + shadedClassifierName + ".jar");
+
+        ClassReachability reachability = null;
+        final MinimizationReport minimization = MinimizationReport.create();
+        if (minimizeClasses) {
+            try (ExecutionMetrics.Phase ignored = metrics.phase("reachability")) {
+                reachability = ClassReachability.of(getLog(), getScanParallelism(), projectJar,
+                        conf.getIncludedArtifacts().map(Artifact::getFile).toJavaList(), minimizeKeep);
+            }
+        }
+
+        getLog().info("Shading natively into [" + output + "]...");
+        try (ExecutionMetrics.Phase ignored = metrics.phase("shade")) {
+            NativeShader.of(getLog(), getScanParallelism(), compressionLevel, storeCompressedEntries, relocatedFragmentCacheDirectory, pluginVersion)
+                    .shade(projectJar, conf, output, reachability, minimization);
+        }
+        if (minimizeClasses) {
+            minimization.logSummary(getLog());
+            try {
+                minimization.writeTo(minimizationReportFile);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to write the minimization report [" + minimizationReportFile + "]", e);
+            }
+        }
+        if (packageIndex) {
+            indexPackages(conf, output);
+        }
+        projectHelper.attachArtifact(project, "jar", shadedClassifierName, output);
+    }
+
+    /**
+     * @return the shade plugin, with this plugin (alone, without its dependencies) as a dependency if its shader is used.
+     */
+    private Plugin shadePlugin() {
+        final List<Dependency> dependencies = new ArrayList<>();
+        if (prefixTrieRelocation) {
+            final PluginDescriptor self = mojoExecution.getMojoDescriptor().getPluginDescriptor();
+            final Dependency umbrellone = dependency(self.getGroupId(), self.getArtifactId(), self.getVersion());
+            final Exclusion everything = new Exclusion();
+            everything.setGroupId("*");
+            everything.setArtifactId("*");
+            umbrellone.addExclusion(everything);
+            dependencies.add(umbrellone);
+        }
+        return plugin(
+                groupId("org.apache.maven.plugins"),
+                artifactId("maven-shade-plugin"),
+                version(shadePluginVersion),
+                dependencies
+        );
+    }
+
+    private void indexPackages(ShadePluginConfiguration conf, File shadedJar) throws MojoExecutionException {
+        try (ExecutionMetrics.Phase ignored = metrics.phase("package-index")) {
+            // the packages of the included artifacts come from the caches filled by the scan of the dependencies.
+            final ShadePluginConfigurationGenerator confGen = getConfigurationGenerator();
+            final PackageJarIndex index = PackageJarIndex.of(getLog(), shadedJar, conf, project.getArtifact(),
+                    artifact -> confGen.packageIndex(artifact).getPackages());
+            index.addIndexListTo(shadedJar, getScanParallelism());
+            index.writeTo(packageIndexFile);
+        } catch (IOException | UncheckedIOException e) {
+            throw new MojoExecutionException("Unable to index the packages of [" + shadedJar + "]", e);
+        }
     }
 }
@@ -0,0 +1,120 @@
+package dev.dimlight.umbrellone.mojo;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Remembers the inputs and the output of the last successful shading, to be able to skip it when nothing changed.
+ * <p>
+ * The output is considered unchanged only if it is still the main artifact of the project and its size and last
+ * modification time did not change: if anything rebuilt the main artifact, it needs to be shaded again.
+ *
+ * @author Marco Nicolini
+ */
+public class UpToDateCheck {
+
+    private static final String INPUTS = "inputs";
+    private static final String OUTPUT = "output";
+    private static final String OUTPUT_SIZE = "output.size";
+    private static final String OUTPUT_LAST_MODIFIED = "output.lastModified";
+    private static final String PROJECT_FILE = "projectFile";
+
+    private final Log log;
+    private final File stateFile;
+
+    private UpToDateCheck(Log log, File stateFile) {
+        this.log = Objects.requireNonNull(log);
+        this.stateFile = Objects.requireNonNull(stateFile);
+    }
+
+    public static UpToDateCheck of(Log log, File stateFile) {
+        return new UpToDateCheck(log, stateFile);
+    }
+
+    /**
+     * @param inputs the fingerprint of the current inputs
+     * @param mainArtifact the current main artifact of the project
+     * @return true if the last shading had the same inputs and the main artifact is still its (untouched) output.
+     */
+    public boolean isUpToDate(String inputs, File mainArtifact) {
+        if (mainArtifact == null || !mainArtifact.isFile()) {
+            return false;
+        }
+
+        final Properties state = load();
+        if (!inputs.equals(state.getProperty(INPUTS))) {
+            log.debug("shading inputs changed since the last execution");
+            return false;
+        }
+
+        final boolean outputUnchanged = mainArtifact.getAbsolutePath().equals(state.getProperty(OUTPUT)) &&
+                String.valueOf(mainArtifact.length()).equals(state.getProperty(OUTPUT_SIZE)) &&
+                String.valueOf(mainArtifact.lastModified()).equals(state.getProperty(OUTPUT_LAST_MODIFIED));
+        if (!outputUnchanged) {
+            log.debug("main artifact [" + mainArtifact + "] is not the output of the last execution");
+        }
+        return outputUnchanged;
+    }
+
+    /**
+     * @return the project file (i.e. a dependency reduced pom) set by the last shading, null if there is none.
+     */
+    public File getRecordedProjectFile() {
+        final String projectFile = load().getProperty(PROJECT_FILE);
+        return projectFile != null ? new File(projectFile) : null;
+    }
+
+    /**
+     * Records a successful shading.
+     */
+    public void record(String inputs, File output, File projectFile) throws MojoExecutionException {
+        final Properties state = new Properties();
+        state.setProperty(INPUTS, inputs);
+        state.setProperty(OUTPUT, output.getAbsolutePath());
+        state.setProperty(OUTPUT_SIZE, String.valueOf(output.length()));
+        state.setProperty(OUTPUT_LAST_MODIFIED, String.valueOf(output.lastModified()));
+        if (projectFile != null) {
+            state.setProperty(PROJECT_FILE, projectFile.getAbsolutePath());
+        }
+
+        try {
+            Files.createDirectories(stateFile.getParentFile().toPath());
+            try (OutputStream out = Files.newOutputStream(stateFile.toPath())) {
+                state.store(out, "umbrellone shade-all up-to-date state");
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write [" + stateFile + "]", e);
+        }
+    }
+
+    /**
+     * Forgets the last shading, so that an interrupted or failed execution is never considered up to date.
+     */
+    public void invalidate() throws MojoExecutionException {
+        try {
+            Files.deleteIfExists(stateFile.toPath());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to delete [" + stateFile + "]", e);
+        }
+    }
+
+    private Properties load() {
+        final Properties state = new Properties();
+        if (stateFile.isFile()) {
+            try (InputStream in = Files.newInputStream(stateFile.toPath())) {
+                state.load(in);
+            } catch (IOException e) {
+                log.warn("Unable to read [" + stateFile + "], ignoring it", e);
+            }
+        }
+        return state;
+    }
+}
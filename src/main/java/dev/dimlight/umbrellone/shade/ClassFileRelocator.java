@@ -0,0 +1,655 @@
+package dev.dimlight.umbrellone.shade;
+
+import org.objectweb.asm.commons.Remapper;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Relocates a class file by rewriting its constant pool only, instead of parsing and writing again all its code as a
+ * {@link org.objectweb.asm.commons.ClassRemapper} does: all the names of a class are strings of its constant pool, so
+ * the rest of the class file (code, frames, attributes) refers to the same constants and is copied as is.
+ * <p>
+ * The role of every string constant (class name, descriptor, signature, string literal or plain name) is found from the
+ * constants and the attributes referring to it, and the string is mapped as the {@link PackageRelocator} maps that role
+ * (as a {@link Remapper}); plain names (fields, methods, variables, attributes...) are never mapped. Constants not
+ * containing the first segment of a relocated package are not even decoded. Class files this class can't relocate on
+ * its own (modules, constants playing roles that map to different strings, unknown constant kinds) are left to the
+ * caller: the result is then the same as the one of a ClassRemapper.
+ *
+ * @author Marco Nicolini
+ */
+public class ClassFileRelocator {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int NAME = 1;
+    private static final int INTERNAL_NAME = 1 << 1;
+    private static final int DESCRIPTOR = 1 << 2;
+    private static final int SIGNATURE = 1 << 3;
+    private static final int STRING = 1 << 4;
+
+    private final PackageRelocator relocator;
+    private final byte[][] firstSegments;
+
+    private ClassFileRelocator(PackageRelocator relocator) {
+        this.relocator = relocator;
+        this.firstSegments = relocator.getFirstSegments().stream()
+                .map(segment -> segment.getBytes(StandardCharsets.UTF_8))
+                .toArray(byte[][]::new);
+    }
+
+    public static ClassFileRelocator of(PackageRelocator relocator) {
+        return new ClassFileRelocator(relocator);
+    }
+
+    /**
+     * @param classFile the bytes of a class file
+     * @return the relocated class file, or null if it can't be relocated by rewriting its constant pool only.
+     */
+    public byte[] relocate(byte[] classFile) {
+        try {
+            return new ClassFile(classFile).relocate();
+        } catch (Unsupported | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Thrown when the class file can't be relocated by rewriting its constant pool only.
+     */
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private class ClassFile {
+        private final byte[] b;
+        private final int[] offsets;
+        private final int[] roles;
+        private final String[] strings;
+        private final int constantPoolEnd;
+
+        ClassFile(byte[] b) {
+            this.b = b;
+            if (u4(0) != MAGIC) {
+                throw new Unsupported();
+            }
+            final int count = u2(8);
+            offsets = new int[count];
+            roles = new int[count];
+            strings = new String[count];
+            int pos = 10;
+            for (int i = 1; i < count; i++) {
+                offsets[i] = pos;
+                switch (b[pos]) {
+                    case 1: // Utf8
+                        pos += 3 + u2(pos + 1);
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        pos += 5;
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        pos += 9;
+                        i++;
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                        pos += 3;
+                        break;
+                    case 15: // MethodHandle
+                        pos += 4;
+                        break;
+                    default: // Module, Package and unknown constants
+                        throw new Unsupported();
+                }
+            }
+            constantPoolEnd = pos;
+        }
+
+        byte[] relocate() {
+            for (int i = 1; i < offsets.length; i++) {
+                final int offset = offsets[i];
+                if (offset == 0) {
+                    continue; // the second slot of a Long or Double
+                }
+                switch (b[offset]) {
+                    case 7:
+                        role(u2(offset + 1), INTERNAL_NAME);
+                        break;
+                    case 8:
+                        role(u2(offset + 1), STRING);
+                        break;
+                    case 12:
+                        role(u2(offset + 1), NAME);
+                        role(u2(offset + 3), DESCRIPTOR);
+                        break;
+                    case 16:
+                        role(u2(offset + 1), DESCRIPTOR);
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            int pos = constantPoolEnd + 6; // access flags, this class and super class
+            pos += 2 + 2 * u2(pos); // interfaces
+            for (int members = 0; members < 2; members++) { // fields, then methods
+                final int count = u2(pos);
+                pos += 2;
+                for (int i = 0; i < count; i++) {
+                    role(u2(pos + 2), NAME);
+                    role(u2(pos + 4), DESCRIPTOR);
+                    pos = attributes(pos + 6);
+                }
+            }
+            attributes(pos);
+
+            return write();
+        }
+
+        /**
+         * Collects the roles of the constants referred to by the attributes at the given position.
+         *
+         * @return the position after the attributes.
+         */
+        private int attributes(int pos) {
+            final int count = u2(pos);
+            pos += 2;
+            for (int i = 0; i < count; i++) {
+                final int nameIndex = u2(pos);
+                role(nameIndex, NAME);
+                final int start = pos + 6;
+                final int end = start + u4(pos + 2);
+                attribute(utf8(nameIndex), start);
+                pos = end;
+            }
+            return pos;
+        }
+
+        private void attribute(String name, int pos) {
+            switch (name) {
+                case "Signature":
+                    role(u2(pos), SIGNATURE);
+                    break;
+                case "SourceFile":
+                    role(u2(pos), NAME);
+                    break;
+                case "Code": {
+                    pos += 4; // max stack and locals
+                    pos += 4 + u4(pos); // code
+                    pos += 2 + 8 * u2(pos); // exception table
+                    attributes(pos);
+                    break;
+                }
+                case "LocalVariableTable":
+                case "LocalVariableTypeTable": {
+                    final int role = name.equals("LocalVariableTable") ? DESCRIPTOR : SIGNATURE;
+                    final int count = u2(pos);
+                    for (int i = 0, entry = pos + 2; i < count; i++, entry += 10) {
+                        role(u2(entry + 4), NAME);
+                        role(u2(entry + 6), role);
+                    }
+                    break;
+                }
+                case "InnerClasses": {
+                    final int count = u2(pos);
+                    for (int i = 0, entry = pos + 2; i < count; i++, entry += 8) {
+                        role(u2(entry + 4), NAME);
+                    }
+                    break;
+                }
+                case "MethodParameters": {
+                    final int count = b[pos] & 0xFF;
+                    for (int i = 0, entry = pos + 1; i < count; i++, entry += 4) {
+                        role(u2(entry), NAME);
+                    }
+                    break;
+                }
+                case "RuntimeVisibleAnnotations":
+                case "RuntimeInvisibleAnnotations":
+                    annotations(pos);
+                    break;
+                case "RuntimeVisibleParameterAnnotations":
+                case "RuntimeInvisibleParameterAnnotations": {
+                    final int parameters = b[pos] & 0xFF;
+                    pos++;
+                    for (int i = 0; i < parameters; i++) {
+                        pos = annotations(pos);
+                    }
+                    break;
+                }
+                case "RuntimeVisibleTypeAnnotations":
+                case "RuntimeInvisibleTypeAnnotations": {
+                    final int count = u2(pos);
+                    pos += 2;
+                    for (int i = 0; i < count; i++) {
+                        pos = typeAnnotationTarget(pos);
+                        pos += 1 + 2 * (b[pos] & 0xFF); // type path
+                        pos = annotation(pos);
+                    }
+                    break;
+                }
+                case "AnnotationDefault":
+                    elementValue(pos);
+                    break;
+                case "Record": {
+                    final int count = u2(pos);
+                    pos += 2;
+                    for (int i = 0; i < count; i++) {
+                        role(u2(pos), NAME);
+                        role(u2(pos + 2), DESCRIPTOR);
+                        pos = attributes(pos + 4);
+                    }
+                    break;
+                }
+                case "Module":
+                case "ModulePackages":
+                case "ModuleMainClass":
+                    throw new Unsupported();
+                default:
+                    // the other attributes only refer to classes and member references (i.e. Exceptions, NestMembers,
+                    // EnclosingMethod, BootstrapMethods, StackMapTable), or to nothing the remapper would map.
+                    break;
+            }
+        }
+
+        private int annotations(int pos) {
+            final int count = u2(pos);
+            pos += 2;
+            for (int i = 0; i < count; i++) {
+                pos = annotation(pos);
+            }
+            return pos;
+        }
+
+        private int annotation(int pos) {
+            role(u2(pos), DESCRIPTOR);
+            final int pairs = u2(pos + 2);
+            pos += 4;
+            for (int i = 0; i < pairs; i++) {
+                role(u2(pos), NAME);
+                pos = elementValue(pos + 2);
+            }
+            return pos;
+        }
+
+        private int elementValue(int pos) {
+            switch (b[pos]) {
+                case 's':
+                    role(u2(pos + 1), STRING);
+                    return pos + 3;
+                case 'e':
+                    role(u2(pos + 1), DESCRIPTOR);
+                    role(u2(pos + 3), NAME);
+                    return pos + 5;
+                case 'c':
+                    role(u2(pos + 1), DESCRIPTOR);
+                    return pos + 3;
+                case '@':
+                    return annotation(pos + 1);
+                case '[': {
+                    final int count = u2(pos + 1);
+                    pos += 3;
+                    for (int i = 0; i < count; i++) {
+                        pos = elementValue(pos);
+                    }
+                    return pos;
+                }
+                default: // a primitive constant
+                    return pos + 3;
+            }
+        }
+
+        /**
+         * @return the position after the target type and target info of a type annotation.
+         */
+        private int typeAnnotationTarget(int pos) {
+            final int targetType = b[pos] & 0xFF;
+            switch (targetType) {
+                case 0x00:
+                case 0x01:
+                case 0x16:
+                    return pos + 2;
+                case 0x13:
+                case 0x14:
+                case 0x15:
+                    return pos + 1;
+                case 0x10:
+                case 0x11:
+                case 0x12:
+                case 0x17:
+                case 0x42:
+                case 0x43:
+                case 0x44:
+                case 0x45:
+                case 0x46:
+                    return pos + 3;
+                case 0x40:
+                case 0x41:
+                    return pos + 3 + 6 * u2(pos + 1);
+                case 0x47:
+                case 0x48:
+                case 0x49:
+                case 0x4A:
+                case 0x4B:
+                    return pos + 4;
+                default:
+                    throw new Unsupported();
+            }
+        }
+
+        private void role(int index, int role) {
+            if (index != 0) {
+                if (b[offsets[index]] != 1) {
+                    throw new Unsupported();
+                }
+                roles[index] |= role;
+            }
+        }
+
+        private byte[] write() {
+            // the constants that change, and their encoding, are known before writing the class of the exact size.
+            final byte[][] encoded = new byte[offsets.length][];
+            int size = b.length;
+            for (int i = 1; i < offsets.length; i++) {
+                final int role = roles[i];
+                if (role == 0 || role == NAME) {
+                    continue;
+                }
+                if (!mayRelocate(i)) {
+                    continue;
+                }
+                final String value = utf8(i);
+                final String mapped = map(value, role);
+                if (!mapped.equals(value)) {
+                    encoded[i] = encodeUtf8(mapped);
+                    size += encoded[i].length - u2(offsets[i] + 1);
+                }
+            }
+
+            final byte[] relocated = new byte[size];
+            int copied = 0;
+            int written = 0;
+            for (int i = 1; i < offsets.length; i++) {
+                if (encoded[i] == null) {
+                    continue;
+                }
+                final int offset = offsets[i];
+                System.arraycopy(b, copied, relocated, written, offset + 1 - copied);
+                written += offset + 1 - copied;
+                relocated[written++] = (byte) (encoded[i].length >> 8);
+                relocated[written++] = (byte) encoded[i].length;
+                System.arraycopy(encoded[i], 0, relocated, written, encoded[i].length);
+                written += encoded[i].length;
+                copied = offset + 3 + u2(offset + 1);
+            }
+            System.arraycopy(b, copied, relocated, written, b.length - copied);
+            return relocated;
+        }
+
+        /**
+         * @return the string the given constant maps to, the same in all its roles.
+         */
+        private String map(String value, int role) {
+            String mapped = null;
+            for (int single = 1; single <= STRING; single <<= 1) {
+                if ((role & single) == 0) {
+                    continue;
+                }
+                final String mappedInRole = mapInRole(value, single);
+                if (mapped != null && !mapped.equals(mappedInRole)) {
+                    throw new Unsupported(); // i.e. a string literal equal to the name of a relocated class
+                }
+                mapped = mappedInRole;
+            }
+            return mapped;
+        }
+
+        private String mapInRole(String value, int role) {
+            switch (role) {
+                case INTERNAL_NAME:
+                    return value.startsWith("[") ? new TypeMapper(value).map() : relocator.map(value);
+                case DESCRIPTOR:
+                case SIGNATURE:
+                    return new TypeMapper(value).map();
+                case STRING:
+                    return (String) relocator.mapValue(value);
+                default:
+                    return value;
+            }
+        }
+
+        /**
+         * @return false if no relocated package starts where a name can start in the given constant: at its beginning
+         * (or after the slash of an absolute resource name) or after the "L" of a class type in a descriptor.
+         */
+        private boolean mayRelocate(int index) {
+            final int start = offsets[index] + 3;
+            final int end = start + u2(offsets[index] + 1);
+            for (int pos = start; pos < end; pos++) {
+                if ((pos <= start + 1 || b[pos - 1] == 'L') && startsWithFirstSegment(pos, end)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean startsWithFirstSegment(int pos, int end) {
+            for (byte[] segment : firstSegments) {
+                final int segmentEnd = pos + segment.length;
+                if (segmentEnd > end || (segmentEnd < end && b[segmentEnd] != '/' && b[segmentEnd] != '.')) {
+                    continue;
+                }
+                int i = 0;
+                while (i < segment.length && b[pos + i] == segment[i]) {
+                    i++;
+                }
+                if (i == segment.length) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private String utf8(int index) {
+            if (strings[index] == null) {
+                strings[index] = decodeUtf8(offsets[index] + 3, u2(offsets[index] + 1));
+            }
+            return strings[index];
+        }
+
+        private String decodeUtf8(int start, int length) {
+            final int end = start + length;
+            int pos = start;
+            while (pos < end && b[pos] >= 0) {
+                pos++;
+            }
+            if (pos == end) { // ascii, the most common case
+                return new String(b, start, length, StandardCharsets.ISO_8859_1);
+            }
+            final char[] chars = new char[length];
+            int count = 0;
+            for (pos = start; pos < end; ) {
+                final int c = b[pos++] & 0xFF;
+                if (c < 0x80) {
+                    chars[count++] = (char) c;
+                } else if (c < 0xE0) {
+                    chars[count++] = (char) (((c & 0x1F) << 6) | (b[pos++] & 0x3F));
+                } else {
+                    chars[count++] = (char) (((c & 0x0F) << 12) | ((b[pos++] & 0x3F) << 6) | (b[pos++] & 0x3F));
+                }
+            }
+            return new String(chars, 0, count);
+        }
+
+        /**
+         * @return the modified utf-8 encoding of the given string, as stored in a class file.
+         */
+        private byte[] encodeUtf8(String value) {
+            int length = 0;
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                length += c >= 0x01 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+            }
+            if (length > 0xFFFF) {
+                throw new Unsupported();
+            }
+            final byte[] encoded = new byte[length];
+            int pos = 0;
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c >= 0x01 && c < 0x80) {
+                    encoded[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    encoded[pos++] = (byte) (0xC0 | (c >> 6));
+                    encoded[pos++] = (byte) (0x80 | (c & 0x3F));
+                } else {
+                    encoded[pos++] = (byte) (0xE0 | (c >> 12));
+                    encoded[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    encoded[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return encoded;
+        }
+
+        private int u2(int pos) {
+            return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+        }
+
+        private int u4(int pos) {
+            return (u2(pos) << 16) | u2(pos + 2);
+        }
+    }
+
+    /**
+     * Maps the class names of a descriptor or of a signature, as the {@link Remapper} and its
+     * {@link org.objectweb.asm.commons.SignatureRemapper} do (the inner class names of a signature are left as they
+     * are: relocating a package doesn't change them), in a single pass.
+     */
+    private class TypeMapper {
+        private final String value;
+        private StringBuilder mapped;
+        private int copied;
+
+        TypeMapper(String value) {
+            this.value = value;
+        }
+
+        String map() {
+            final int length = value.length();
+            // the formal type parameters of a class or method signature, i.e. "<K:Ljava/lang/Object;V::La/B;>"
+            boolean inParameters = value.charAt(0) == '<';
+            // whether a bound of a type parameter is being parsed, or its identifier
+            boolean inBound = false;
+            // the nesting of the type arguments being parsed, i.e. 1 in the "<...>" of "La/B<...>;"
+            int depth = 0;
+            int pos = inParameters ? 1 : 0;
+            while (pos < length) {
+                final char c = value.charAt(pos);
+                if (inParameters && depth == 0) {
+                    if (c == ':') {
+                        inBound = true;
+                        pos++;
+                        continue;
+                    } else if (c == '>') {
+                        inParameters = false;
+                        inBound = false;
+                        pos++;
+                        continue;
+                    } else if (!inBound) { // the identifier of a type parameter
+                        pos = value.indexOf(':', pos);
+                        if (pos < 0) {
+                            throw new Unsupported();
+                        }
+                        continue;
+                    }
+                }
+
+                switch (c) {
+                    case 'L': {
+                        final int end = endOfName(pos + 1);
+                        mapName(pos + 1, end);
+                        pos = end;
+                        break;
+                    }
+                    case '.': // an inner class of a class type
+                        pos = endOfName(pos + 1);
+                        break;
+                    case 'T': // a type variable
+                        pos = value.indexOf(';', pos) + 1;
+                        if (pos == 0) {
+                            throw new Unsupported();
+                        }
+                        inBound = inBound && depth > 0;
+                        break;
+                    case ';': // the end of a class type
+                    case 'Z':
+                    case 'C':
+                    case 'B':
+                    case 'S':
+                    case 'I':
+                    case 'F':
+                    case 'J':
+                    case 'D':
+                    case 'V':
+                        pos++;
+                        inBound = inBound && depth > 0;
+                        break;
+                    case '<':
+                        depth++;
+                        pos++;
+                        break;
+                    case '>':
+                        if (depth == 0) {
+                            throw new Unsupported();
+                        }
+                        depth--;
+                        pos++;
+                        break;
+                    case '[':
+                    case '(':
+                    case ')':
+                    case '^':
+                    case '*':
+                    case '+':
+                    case '-':
+                        pos++;
+                        break;
+                    default:
+                        throw new Unsupported();
+                }
+            }
+            return mapped == null ? value : mapped.append(value, copied, length).toString();
+        }
+
+        private int endOfName(int from) {
+            int end = from;
+            for (char c = value.charAt(end); c != ';' && c != '<' && c != '.'; c = value.charAt(++end)) {
+                // a class name
+            }
+            return end;
+        }
+
+        private void mapName(int start, int end) {
+            final String name = value.substring(start, end);
+            final String mappedName = relocator.map(name);
+            if (!mappedName.equals(name)) {
+                if (mapped == null) {
+                    mapped = new StringBuilder(value.length() + 32);
+                }
+                mapped.append(value, copied, start).append(mappedName);
+                copied = end;
+            }
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package dev.dimlight.umbrellone.shade;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.objectweb.asm.ClassReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The classes of a set of jars that are reachable from the classes of the project.
+ * <p>
+ * Every class of every jar is scanned (in parallel) for the names of the classes it references: all the strings of its
+ * constant pool that are class names, in internal (a/b/C) or dotted (a.b.C) form, or that contain type descriptors
+ * (La/b/C;). This covers superclasses, interfaces, member and method signatures, annotations and string constants
+ * naming classes, so it errs on the side of keeping too much. Classes are then visited starting from the roots:
+ * <ul>
+ * <li>the classes of the project, and the classes that cannot be read;</li>
+ * <li>the classes matching the keep patterns ("a.b.C", "a.b.*" for the classes of a package, "a.b.**" for the classes
+ * of a package and of its subpackages), for the classes only loaded by reflection with computed names;</li>
+ * <li>the providers declared in <code>META-INF/services</code>, as soon as their service is reachable (or always, when
+ * the service is not a class of the jars, i.e. a JDK service).</li>
+ * </ul>
+ * Names are the ones found in the jars, before relocation.
+ *
+ * @author Marco Nicolini
+ */
+public class ClassReachability {
+
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+    private static final String MULTI_RELEASE_PREFIX = "META-INF/versions/";
+    private static final int UTF8_TAG = 1;
+
+    private final Set<String> reachable;
+    private final int classes;
+
+    private ClassReachability(Set<String> reachable, int classes) {
+        this.reachable = reachable;
+        this.classes = classes;
+    }
+
+    /**
+     * @param projectJar the jar of the project, all its classes are roots
+     * @param jars the jars whose classes are kept only if reachable
+     * @param keepPatterns patterns of classes that are roots as well, see above
+     */
+    public static ClassReachability of(Log log, int parallelism, File projectJar, List<File> jars, Collection<String> keepPatterns)
+            throws MojoExecutionException {
+        final List<File> allJars = new ArrayList<>();
+        allJars.add(projectJar);
+        allJars.addAll(jars);
+
+        final Map<String, Set<String>> referencesByClass = new HashMap<>();
+        final Map<String, Set<String>> providersByService = new HashMap<>();
+        final Set<String> projectClasses = new HashSet<>();
+        final Set<String> unreadable = new HashSet<>();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism), new ThreadFactoryBuilder()
+                .setNameFormat("umbrellone-reachability-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            final CompletionService<ScannedJar> completionService = new ExecutorCompletionService<>(executor);
+            for (File jar : allJars) {
+                completionService.submit(() -> scan(jar));
+            }
+            for (int i = 0; i < allJars.size(); i++) {
+                final ScannedJar scanned = completionService.take().get();
+                scanned.referencesByClass.forEach((className, references) ->
+                        referencesByClass.computeIfAbsent(className, c -> new HashSet<>()).addAll(references));
+                scanned.providersByService.forEach((service, providers) ->
+                        providersByService.computeIfAbsent(service, s -> new HashSet<>()).addAll(providers));
+                unreadable.addAll(scanned.unreadable);
+                if (scanned.jar.equals(projectJar)) {
+                    projectClasses.addAll(scanned.referencesByClass.keySet());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while scanning classes", e);
+        } catch (ExecutionException e) {
+            throw new MojoExecutionException("Unable to scan classes: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final Deque<String> toVisit = new ArrayDeque<>(projectClasses);
+        toVisit.addAll(unreadable);
+        if (!unreadable.isEmpty()) {
+            log.warn("[" + unreadable.size() + "] classes could not be read and are kept");
+        }
+        final KeepPatterns keep = KeepPatterns.of(keepPatterns);
+        for (String className : referencesByClass.keySet()) {
+            if (keep.matches(className)) {
+                toVisit.add(className);
+            }
+        }
+        providersByService.forEach((service, providers) -> {
+            if (!referencesByClass.containsKey(service)) {
+                toVisit.addAll(providers);
+            }
+        });
+
+        final Set<String> reachable = new HashSet<>();
+        while (!toVisit.isEmpty()) {
+            final String className = toVisit.removeFirst();
+            final Set<String> references = referencesByClass.get(className);
+            if (references == null || !reachable.add(className)) {
+                continue;
+            }
+            for (String reference : references) {
+                if (!reachable.contains(reference)) {
+                    toVisit.add(reference);
+                }
+            }
+            final Set<String> providers = providersByService.get(className);
+            if (providers != null) {
+                toVisit.addAll(providers);
+            }
+        }
+
+        log.info("[" + reachable.size() + "] of [" + referencesByClass.size() + "] classes are reachable from [" +
+                projectClasses.size() + "] project classes");
+        return new ClassReachability(reachable, referencesByClass.size());
+    }
+
+    /**
+     * @return the reachable classes, in internal form.
+     */
+    public Set<String> getReachable() {
+        return reachable;
+    }
+
+    /**
+     * @return the number of classes scanned.
+     */
+    public int getClasses() {
+        return classes;
+    }
+
+    /**
+     * @param entryName the name of a jar entry, i.e. "a/b/C.class" or "META-INF/versions/9/a/b/C.class"
+     * @return the internal name of the class of the entry, or null if it is not a class.
+     */
+    public static String classOf(String entryName) {
+        if (!entryName.endsWith(".class") || entryName.endsWith("module-info.class")) {
+            return null;
+        }
+        String path = entryName;
+        if (path.startsWith(MULTI_RELEASE_PREFIX)) {
+            final int versionEnd = path.indexOf('/', MULTI_RELEASE_PREFIX.length());
+            if (versionEnd < 0) {
+                return null;
+            }
+            path = path.substring(versionEnd + 1);
+        } else if (path.startsWith("META-INF/")) {
+            return null;
+        }
+        return path.substring(0, path.length() - ".class".length());
+    }
+
+    private static ScannedJar scan(File jar) throws IOException {
+        final ScannedJar scanned = new ScannedJar(jar);
+        try (ZipFile zip = new ZipFile(jar)) {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                final String name = entry.getName();
+                final String className = classOf(name);
+                if (className != null) {
+                    final byte[] content;
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        content = ByteStreams.toByteArray(in);
+                    }
+                    final Set<String> references = scanned.referencesByClass.computeIfAbsent(className, c -> new HashSet<>());
+                    try {
+                        referencesOf(content, references);
+                    } catch (RuntimeException e) {
+                        // not a class file asm can read: kept, as it cannot be told what it needs.
+                        scanned.unreadable.add(className);
+                    }
+                } else if (name.startsWith(SERVICES_PREFIX) && name.indexOf('/', SERVICES_PREFIX.length()) < 0) {
+                    final String service = name.substring(SERVICES_PREFIX.length()).replace('.', '/');
+                    try (BufferedReader in = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8))) {
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            final int comment = line.indexOf('#');
+                            final String provider = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                            if (!provider.isEmpty()) {
+                                scanned.providersByService.computeIfAbsent(service, s -> new HashSet<>()).add(provider.replace('.', '/'));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return scanned;
+    }
+
+    /**
+     * Adds to the given set the class names found in the utf8 constants of a class.
+     */
+    private static void referencesOf(byte[] content, Set<String> references) {
+        final ClassReader reader = new ClassReader(content);
+        final StringBuilder utf8 = new StringBuilder();
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            final int offset = reader.getItem(i);
+            if (offset == 0 || reader.readByte(offset - 1) != UTF8_TAG) {
+                continue;
+            }
+            decodeUtf8(reader, offset, utf8);
+            addReferences(utf8, references);
+        }
+    }
+
+    private static void addReferences(CharSequence constant, Set<String> references) {
+        final int length = constant.length();
+        if (length == 0) {
+            return;
+        }
+
+        // the whole constant: a class name in internal or dotted form.
+        boolean name = true;
+        boolean qualified = false;
+        for (int i = 0; i < length && name; i++) {
+            final char c = constant.charAt(i);
+            qualified |= c == '/' || c == '.';
+            name = Character.isJavaIdentifierPart(c) || c == '/' || c == '.';
+        }
+        if (name && qualified) {
+            references.add(constant.toString().replace('.', '/'));
+        }
+
+        // type descriptors and signatures: La/b/C; or La/b/C<...>;
+        for (int start = 0; start < length; start++) {
+            if (constant.charAt(start) != 'L' || (start > 0 && Character.isJavaIdentifierPart(constant.charAt(start - 1)))) {
+                continue;
+            }
+            int end = start + 1;
+            while (end < length && constant.charAt(end) != ';' && constant.charAt(end) != '<') {
+                end++;
+            }
+            if (end < length && end > start + 1) {
+                references.add(constant.subSequence(start + 1, end).toString());
+            }
+        }
+    }
+
+    /**
+     * Decodes the (modified) utf8 constant at the given offset of the constant pool.
+     */
+    private static void decodeUtf8(ClassReader reader, int offset, StringBuilder utf8) {
+        utf8.setLength(0);
+        final int length = reader.readUnsignedShort(offset);
+        int pos = offset + 2;
+        final int end = pos + length;
+        while (pos < end) {
+            final int b = reader.readByte(pos++);
+            if ((b & 0x80) == 0) {
+                utf8.append((char) b);
+            } else if ((b & 0xE0) == 0xC0) {
+                utf8.append((char) (((b & 0x1F) << 6) | (reader.readByte(pos++) & 0x3F)));
+            } else {
+                utf8.append((char) (((b & 0xF) << 12) | ((reader.readByte(pos++) & 0x3F) << 6) | (reader.readByte(pos++) & 0x3F)));
+            }
+        }
+    }
+
+    private static class ScannedJar {
+        final File jar;
+        final Map<String, Set<String>> referencesByClass = new HashMap<>();
+        final Map<String, Set<String>> providersByService = new HashMap<>();
+        final Set<String> unreadable = new HashSet<>();
+
+        ScannedJar(File jar) {
+            this.jar = jar;
+        }
+    }
+
+    /**
+     * Patterns of classes to keep, see {@link ClassReachability}.
+     */
+    private static class KeepPatterns {
+        final Set<String> classes = new HashSet<>();
+        final Set<String> packages = new HashSet<>();
+        final List<String> packageTrees = new ArrayList<>();
+
+        static KeepPatterns of(Collection<String> patterns) {
+            final KeepPatterns keep = new KeepPatterns();
+            for (String pattern : Objects.requireNonNull(patterns)) {
+                final String internal = pattern.trim().replace('.', '/');
+                if (internal.endsWith("/**")) {
+                    keep.packageTrees.add(internal.substring(0, internal.length() - 2));
+                } else if (internal.endsWith("/*")) {
+                    keep.packages.add(internal.substring(0, internal.length() - 2));
+                } else if (!internal.isEmpty()) {
+                    keep.classes.add(internal);
+                }
+            }
+            return keep;
+        }
+
+        boolean matches(String className) {
+            if (classes.contains(className)) {
+                return true;
+            }
+            final int lastSep = className.lastIndexOf('/');
+            if (lastSep > 0 && packages.contains(className.substring(0, lastSep))) {
+                return true;
+            }
+            for (String tree : packageTrees) {
+                if (className.startsWith(tree)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package dev.dimlight.umbrellone.shade;
+
+import io.vavr.Tuple;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Objects;
+
+/**
+ * Persists a generated {@link ShadePluginConfiguration} together with the fingerprint of the inputs it was generated
+ * from, so that a later execution (possibly of another goal, or of another build that restored the file from a cache)
+ * can reuse it instead of scanning the dependencies again.
+ * <p>
+ * The file is a line oriented text file: a header, the fingerprint, the coordinates of the included artifacts and the
+ * relocation rules (pattern and shaded pattern separated by a tab).
+ *
+ * @author Marco Nicolini
+ */
+public class ConfigurationStore {
+
+    private static final String HEADER = "# umbrellone shade plugin configuration v1";
+    private static final String ARTIFACTS_SECTION = "[artifacts]";
+    private static final String RELOCATIONS_SECTION = "[relocations]";
+
+    private final Log log;
+    private final File file;
+
+    private ConfigurationStore(Log log, File file) {
+        this.log = Objects.requireNonNull(log);
+        this.file = Objects.requireNonNull(file);
+    }
+
+    public static ConfigurationStore of(Log log, File file) {
+        return new ConfigurationStore(log, file);
+    }
+
+    /**
+     * Fingerprints the inputs of the configuration generation. Artifacts are identified by coordinates and size, their
+     * modification time is considered only for snapshots and for files outside the local repository (i.e. modules of
+     * the reactor): released artifacts of the local repository never change, and a cache restored on another machine
+     * does not preserve timestamps. Directories (i.e. the output directory of a module of the reactor) are identified by
+     * the names, sizes and modification times of all the entries they hold.
+     *
+     * @param dependencies the dependencies the configuration is generated from
+     * @param localRepository the base directory of the local repository
+     * @param parameters anything else influencing the generation (relocation prefix, filters, plugin version...)
+     * @return the fingerprint of the given inputs.
+     */
+    public static String fingerprint(List<DependencyNode> dependencies, File localRepository, String... parameters) throws MojoExecutionException {
+        final Fingerprint fingerprint = Fingerprint.create().add(HEADER);
+        for (String parameter : parameters) {
+            fingerprint.add(parameter);
+        }
+
+        final String localRepositoryPath = localRepository != null ? localRepository.getAbsolutePath() + File.separator : null;
+        fingerprint.add(dependencies.size());
+        for (DependencyNode dependency : dependencies) {
+            final Artifact artifact = dependency.getArtifact();
+            final File artifactFile = artifact.getFile();
+            fingerprint.add(coordinatesOf(artifact));
+            if (artifactFile == null || !artifactFile.exists()) {
+                fingerprint.add("<missing>");
+                continue;
+            }
+            if (artifactFile.isDirectory()) {
+                try {
+                    fingerprint.addTree(artifactFile);
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Unable to fingerprint the directory [" + artifactFile + "] of [" + artifact + "]", e);
+                }
+                continue;
+            }
+            fingerprint.add(artifactFile.length());
+            final boolean immutable = !artifact.isSnapshot() && localRepositoryPath != null &&
+                    artifactFile.getAbsolutePath().startsWith(localRepositoryPath);
+            if (!immutable) {
+                fingerprint.add(artifactFile.lastModified());
+            }
+        }
+        return fingerprint.hash();
+    }
+
+    /**
+     * @param fingerprint the fingerprint of the current inputs
+     * @param dependencies the current dependencies, the included artifacts of the loaded configuration are taken from
+     *                     them
+     * @return the stored configuration if it was generated from the same inputs, none otherwise.
+     */
+    public Option<ShadePluginConfiguration> load(String fingerprint, List<DependencyNode> dependencies) {
+        final java.util.List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            log.debug("no stored configuration in [" + file + "]");
+            return Option.none();
+        } catch (IOException e) {
+            log.warn("unable to read the stored configuration [" + file + "], ignoring it", e);
+            return Option.none();
+        }
+
+        final int artifactsStart = lines.indexOf(ARTIFACTS_SECTION);
+        final int relocationsStart = lines.indexOf(RELOCATIONS_SECTION);
+        if (lines.size() < 2 || !lines.get(0).equals(HEADER) || artifactsStart < 0 || relocationsStart < artifactsStart) {
+            log.warn("stored configuration [" + file + "] is invalid, ignoring it");
+            return Option.none();
+        }
+        if (!lines.get(1).equals(fingerprint)) {
+            log.info("stored configuration [" + file + "] was generated from different inputs, ignoring it");
+            return Option.none();
+        }
+
+        final Map<String, Artifact> artifactsByCoordinates = HashMap.ofEntries(dependencies
+                .map(DependencyNode::getArtifact)
+                .map(artifact -> Tuple.of(coordinatesOf(artifact), artifact)));
+
+        final java.util.List<Artifact> included = new ArrayList<>();
+        for (String coordinates : lines.subList(artifactsStart + 1, relocationsStart)) {
+            final Option<Artifact> artifact = artifactsByCoordinates.get(coordinates);
+            if (artifact.isEmpty()) {
+                log.warn("stored configuration [" + file + "] includes the unknown artifact [" + coordinates + "], ignoring it");
+                return Option.none();
+            }
+            included.add(artifact.get());
+        }
+
+        final java.util.List<RelocationRule> rules = new ArrayList<>();
+        for (String line : lines.subList(relocationsStart + 1, lines.size())) {
+            final int tab = line.indexOf('\t');
+            if (tab < 0) {
+                log.warn("stored configuration [" + file + "] has an invalid relocation [" + line + "], ignoring it");
+                return Option.none();
+            }
+            rules.add(RelocationRule.of(line.substring(0, tab), line.substring(tab + 1)));
+        }
+
+        return Option.of(ShadePluginConfiguration.of(List.ofAll(included), List.ofAll(rules)));
+    }
+
+    /**
+     * Stores the given configuration, replacing the previous one.
+     */
+    public void save(String fingerprint, ShadePluginConfiguration conf) throws MojoExecutionException {
+        try {
+            final Path target = file.getAbsoluteFile().toPath();
+            Files.createDirectories(target.getParent());
+            final Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try {
+                try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    out.write(HEADER);
+                    out.newLine();
+                    out.write(fingerprint);
+                    out.newLine();
+                    out.write(ARTIFACTS_SECTION);
+                    out.newLine();
+                    for (Artifact artifact : conf.getIncludedArtifacts()) {
+                        out.write(coordinatesOf(artifact));
+                        out.newLine();
+                    }
+                    out.write(RELOCATIONS_SECTION);
+                    out.newLine();
+                    for (RelocationRule rule : conf.getRelocationRules()) {
+                        out.write(rule.pattern);
+                        out.write('\t');
+                        out.write(rule.shadedPattern);
+                        out.newLine();
+                    }
+                }
+
+                try {
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to store the configuration in [" + file + "]", e);
+        }
+        log.debug("stored configuration in [" + file + "]");
+    }
+
+    private static String coordinatesOf(Artifact artifact) {
+        return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getType() + ":" +
+                Objects.toString(artifact.getClassifier(), "") + ":" + artifact.getVersion();
+    }
+}
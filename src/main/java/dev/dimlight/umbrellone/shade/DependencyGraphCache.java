@@ -0,0 +1,279 @@
+package dev.dimlight.umbrellone.shade;
+
+import io.vavr.control.Option;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.model.Profile;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+import static com.google.common.base.Strings.emptyToNull;
+import static com.google.common.base.Strings.nullToEmpty;
+
+/**
+ * Persists the (filtered) dependency graph of a project, so that a later build with the same dependency declarations
+ * can skip its resolution.
+ * <p>
+ * The graph is keyed by a hash of the effective dependencies and dependency management of the project, of its active
+ * profiles, of the reactor, of the local repository, of the plugin version and of the artifact filter the graph was
+ * built with. It is also discarded when the file of any of its artifacts disappeared or changed (size or modification
+ * time). Note that version ranges are not resolved again as long as the key does not change.
+ * <p>
+ * The file is a line oriented text file: a header, the key, and the nodes of the graph in depth first order, one per
+ * line, each with its depth and its artifact (tab separated).
+ *
+ * @author Marco Nicolini
+ */
+public class DependencyGraphCache {
+
+    private static final String HEADER = "# umbrellone dependency graph v1";
+    private static final String NODES_SECTION = "[nodes]";
+    private static final int FIELDS = 15;
+
+    private final Log log;
+    private final File file;
+    private final String key;
+
+    private DependencyGraphCache(Log log, File file, String key) {
+        this.log = Objects.requireNonNull(log);
+        this.file = file;
+        this.key = key;
+    }
+
+    /**
+     * @param file the file holding the graph, if null the cache is disabled.
+     * @param pluginVersion the version of this plugin, graphs stored by other versions are not reused
+     * @param filterDescription a description of the artifact filter the graph is built with, stable across executions
+     */
+    public static DependencyGraphCache of(Log log, File file, String pluginVersion, MavenSession session, MavenProject project,
+                                          Collection<MavenProject> reactorProjects, String filterDescription) {
+        if (file == null) {
+            return disabled(log);
+        }
+
+        final Fingerprint fingerprint = Fingerprint.create()
+                .add(HEADER)
+                .add(pluginVersion)
+                .add(project.getId())
+                .add(filterDescription)
+                .add(session.getLocalRepository() != null ? session.getLocalRepository().getBasedir() : null)
+                .add(session.isOffline() ? "offline" : "online");
+        addDependencies(fingerprint, project.getDependencies());
+        addDependencies(fingerprint, project.getDependencyManagement() != null ?
+                project.getDependencyManagement().getDependencies() : null);
+        final List<Profile> activeProfiles = project.getActiveProfiles();
+        fingerprint.add(activeProfiles.size());
+        activeProfiles.forEach(profile -> fingerprint.add(profile.getId()));
+        fingerprint.add(reactorProjects.size());
+        reactorProjects.forEach(reactorProject -> fingerprint.add(reactorProject.getId()));
+
+        return new DependencyGraphCache(log, file, fingerprint.hash());
+    }
+
+    public static DependencyGraphCache disabled(Log log) {
+        return new DependencyGraphCache(log, null, null);
+    }
+
+    /**
+     * @return the stored graph (its root node) if it was built from the same inputs and its artifact files did not
+     *         change, none otherwise.
+     */
+    public Option<DependencyNode> load() {
+        if (file == null) {
+            return Option.none();
+        }
+
+        final List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            log.debug("no stored dependency graph in [" + file + "]");
+            return Option.none();
+        } catch (IOException e) {
+            log.warn("unable to read the stored dependency graph [" + file + "], ignoring it", e);
+            return Option.none();
+        }
+
+        if (lines.size() < 4 || !lines.get(0).equals(HEADER) || !lines.get(2).equals(NODES_SECTION)) {
+            log.warn("stored dependency graph [" + file + "] is invalid, ignoring it");
+            return Option.none();
+        }
+        if (!lines.get(1).equals(key)) {
+            log.info("stored dependency graph [" + file + "] was built from different dependencies, ignoring it");
+            return Option.none();
+        }
+
+        try {
+            final DependencyNode root = parse(lines.subList(3, lines.size()));
+            if (root != null) {
+                log.info("reusing the dependency graph stored in [" + file + "]");
+            }
+            return Option.of(root);
+        } catch (RuntimeException e) {
+            log.warn("stored dependency graph [" + file + "] is invalid, ignoring it", e);
+            return Option.none();
+        }
+    }
+
+    /**
+     * @return the root of the graph, or null if it is not valid anymore.
+     */
+    private DependencyNode parse(List<String> nodes) {
+        // the last node of each depth, the parent of the next node one level deeper.
+        final List<DefaultDependencyNode> path = new ArrayList<>();
+        final List<List<DependencyNode>> children = new ArrayList<>();
+        for (String line : nodes) {
+            final String[] fields = line.split("\t", -1);
+            final int depth = fields.length == FIELDS ? Integer.parseInt(fields[0]) : -1;
+            if (depth < 0 || depth > path.size() || (depth == 0) != path.isEmpty()) {
+                log.warn("stored dependency graph [" + file + "] has an invalid node [" + line + "], ignoring it");
+                return null;
+            }
+
+            final Artifact artifact = artifactOf(fields);
+            final File artifactFile = artifact.getFile();
+            if (depth > 0 && artifactFile != null && (!artifactFile.exists() ||
+                    artifactFile.length() != Long.parseLong(fields[10]) || artifactFile.lastModified() != Long.parseLong(fields[11]))) {
+                log.info("the file of [" + artifact + "] changed since the dependency graph was stored, ignoring it");
+                return null;
+            }
+
+            while (path.size() > depth) {
+                path.get(path.size() - 1).setChildren(children.remove(children.size() - 1));
+                path.remove(path.size() - 1);
+            }
+            final DefaultDependencyNode node = new DefaultDependencyNode(depth > 0 ? path.get(depth - 1) : null, artifact,
+                    emptyToNull(fields[12]), emptyToNull(fields[13]), emptyToNull(fields[14]), artifact.isOptional());
+            if (depth > 0) {
+                children.get(depth - 1).add(node);
+            }
+            path.add(node);
+            children.add(new ArrayList<>());
+        }
+        if (path.isEmpty()) {
+            log.warn("stored dependency graph [" + file + "] has no nodes, ignoring it");
+            return null;
+        }
+        while (path.size() > 1) {
+            path.get(path.size() - 1).setChildren(children.remove(children.size() - 1));
+            path.remove(path.size() - 1);
+        }
+        path.get(0).setChildren(children.get(0));
+        return path.get(0);
+    }
+
+    /**
+     * Stores the graph with the given root, replacing the previous one.
+     */
+    public void save(DependencyNode root) {
+        if (file == null) {
+            return;
+        }
+
+        try {
+            final Path target = file.getAbsoluteFile().toPath();
+            Files.createDirectories(target.getParent());
+            final Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try {
+                try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    out.write(HEADER);
+                    out.newLine();
+                    out.write(key);
+                    out.newLine();
+                    out.write(NODES_SECTION);
+                    out.newLine();
+                    write(out, root, 0);
+                }
+
+                try {
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            // the graph is only an optimization, the build goes on without it.
+            log.warn("unable to store the dependency graph in [" + file + "]", e);
+            return;
+        }
+        log.debug("stored the dependency graph in [" + file + "]");
+    }
+
+    private static void write(BufferedWriter out, DependencyNode node, int depth) throws IOException {
+        final Artifact artifact = node.getArtifact();
+        final File artifactFile = depth > 0 ? artifact.getFile() : null;
+        out.write(String.join("\t",
+                Integer.toString(depth),
+                artifact.getGroupId(),
+                artifact.getArtifactId(),
+                artifact.getVersion(),
+                nullToEmpty(artifact.getType()),
+                nullToEmpty(artifact.getClassifier()),
+                nullToEmpty(artifact.getScope()),
+                Boolean.toString(artifact.isOptional()),
+                Boolean.toString(artifact.isResolved()),
+                artifactFile != null ? artifactFile.getAbsolutePath() : "",
+                Long.toString(artifactFile != null ? artifactFile.length() : 0L),
+                Long.toString(artifactFile != null ? artifactFile.lastModified() : 0L),
+                nullToEmpty(node.getPremanagedVersion()),
+                nullToEmpty(node.getPremanagedScope()),
+                nullToEmpty(node.getVersionConstraint())));
+        out.newLine();
+        for (DependencyNode child : node.getChildren()) {
+            write(out, child, depth + 1);
+        }
+    }
+
+    private static Artifact artifactOf(String[] fields) {
+        final String type = emptyToNull(fields[4]);
+        final Artifact artifact = new DefaultArtifact(fields[1], fields[2], fields[3], emptyToNull(fields[6]), type,
+                emptyToNull(fields[5]), new DefaultArtifactHandler(type));
+        artifact.setOptional(Boolean.parseBoolean(fields[7]));
+        artifact.setResolved(Boolean.parseBoolean(fields[8]));
+        if (!fields[9].isEmpty()) {
+            artifact.setFile(new File(fields[9]));
+        }
+        return artifact;
+    }
+
+    private static void addDependencies(Fingerprint fingerprint, List<Dependency> dependencies) {
+        if (dependencies == null) {
+            fingerprint.add(-1);
+            return;
+        }
+        fingerprint.add(dependencies.size());
+        for (Dependency dependency : dependencies) {
+            fingerprint.add(dependency.getManagementKey())
+                    .add(dependency.getVersion())
+                    .add(dependency.getScope())
+                    .add(dependency.getOptional())
+                    .add(dependency.getSystemPath());
+            fingerprint.add(dependency.getExclusions().size());
+            for (Exclusion exclusion : dependency.getExclusions()) {
+                fingerprint.add(exclusion.getGroupId() + ":" + exclusion.getArtifactId());
+            }
+        }
+    }
+}
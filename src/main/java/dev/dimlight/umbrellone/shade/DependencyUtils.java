@@ -1,6 +1,6 @@
 package dev.dimlight.umbrellone.shade;
 
-import com.google.common.collect.ImmutableList;
+import io.vavr.control.Option;
 import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -13,10 +13,12 @@ import org.apache.maven.shared.dependency.graph.DependencyGraphBuilderException;
 import org.apache.maven.shared.dependency.graph.DependencyNode;
 import org.apache.maven.shared.dependency.graph.traversal.DependencyNodeVisitor;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 
 /**
  * Methods to walk and collect all dependencies for the project.
@@ -30,13 +32,15 @@ public class DependencyUtils {
     private final MavenProject project;
     private final DependencyGraphBuilder dependencyGraphBuilder;
     private final List<MavenProject> reactorProjects;
+    private final DependencyGraphCache graphCache;
 
-    private DependencyUtils(Log log, MavenSession session, MavenProject project, DependencyGraphBuilder dependencyGraphBuilder, List<MavenProject> reactorProjects) {
+    private DependencyUtils(Log log, MavenSession session, MavenProject project, DependencyGraphBuilder dependencyGraphBuilder, List<MavenProject> reactorProjects, DependencyGraphCache graphCache) {
         this.log = Objects.requireNonNull(log);
         this.session = Objects.requireNonNull(session);
         this.project = Objects.requireNonNull(project);
         this.dependencyGraphBuilder = Objects.requireNonNull(dependencyGraphBuilder);
         this.reactorProjects = Objects.requireNonNull(reactorProjects);
+        this.graphCache = Objects.requireNonNull(graphCache);
     }
 
     public static DependencyUtils of(Log log,
@@ -44,28 +48,43 @@ public class DependencyUtils {
                                      MavenProject project,
                                      DependencyGraphBuilder dependencyGraphBuilder,
                                      List<MavenProject> reactorProjects) {
-        return new DependencyUtils(log, session, project, dependencyGraphBuilder, reactorProjects);
+        return new DependencyUtils(log, session, project, dependencyGraphBuilder, reactorProjects, DependencyGraphCache.disabled(log));
+    }
+
+    /**
+     * @param graphCache the cache of the dependency graph, used instead of building the graph when it is still valid
+     */
+    public static DependencyUtils of(Log log,
+                                     MavenSession session,
+                                     MavenProject project,
+                                     DependencyGraphBuilder dependencyGraphBuilder,
+                                     List<MavenProject> reactorProjects,
+                                     DependencyGraphCache graphCache) {
+        return new DependencyUtils(log, session, project, dependencyGraphBuilder, reactorProjects, graphCache);
     }
 
     public Collection<DependencyNode> getAllDependencies(ArtifactFilter artifactFilter) throws MojoExecutionException {
-        final ProjectBuildingRequest buildingRequest = new DefaultProjectBuildingRequest( session.getProjectBuildingRequest() );
-        buildingRequest.setProject(project);
+        final List<DependencyNode> dependencies = new ArrayList<>();
+        forEachDependency(artifactFilter, dependencies::add);
+        return Collections.unmodifiableList(dependencies);
+    }
 
-        final DependencyNode root;
-        try {
-            root = dependencyGraphBuilder.buildDependencyGraph(buildingRequest, artifactFilter, reactorProjects);
-        } catch (final DependencyGraphBuilderException e) {
-            throw new MojoExecutionException(e.getMessage(), e);
-        }
+    /**
+     * Walks the dependency graph of the project (depth first, the project itself excluded), handing every node to the
+     * given consumer as soon as it is reached, without collecting them.
+     */
+    public void forEachDependency(ArtifactFilter artifactFilter, Consumer<DependencyNode> consumer) throws MojoExecutionException {
+        final DependencyNode root = buildDependencyGraph(artifactFilter);
 
         final boolean doVisitChildren = true;
         final boolean doVisitSiblings = true;
-        final LinkedList<DependencyNode> dependecies = new LinkedList<>();
         final DependencyNodeVisitor visitor = new DependencyNodeVisitor() {
             @Override
             public boolean visit(final DependencyNode node) {
-                log.debug("Collecting dependency [" + node + "]");
-                dependecies.add(node);
+                if (node != root) { // skip the root node it's the host project itself
+                    log.debug("Collecting dependency [" + node + "]");
+                    consumer.accept(node);
+                }
                 return doVisitChildren;
             }
 
@@ -75,9 +94,24 @@ public class DependencyUtils {
             }
         };
         root.accept(visitor);
+    }
 
-        dependecies.removeFirst(); // skip the root node it's the host project itself
+    private DependencyNode buildDependencyGraph(ArtifactFilter artifactFilter) throws MojoExecutionException {
+        final Option<DependencyNode> cached = graphCache.load();
+        if (cached.isDefined()) {
+            return cached.get();
+        }
+
+        final ProjectBuildingRequest buildingRequest = new DefaultProjectBuildingRequest( session.getProjectBuildingRequest() );
+        buildingRequest.setProject(project);
 
-        return ImmutableList.copyOf(dependecies);
+        final DependencyNode root;
+        try {
+            root = dependencyGraphBuilder.buildDependencyGraph(buildingRequest, artifactFilter, reactorProjects);
+        } catch (final DependencyGraphBuilderException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+        graphCache.save(root);
+        return root;
     }
 }
@@ -0,0 +1,247 @@
+package dev.dimlight.umbrellone.shade;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings and I/O counters of a goal execution, reported as a one line summary in the build log and as a JSON file.
+ * <p>
+ * Phases are timed with {@link #phase(String)}, which is meant to be used in a try-with-resources block; the time of a
+ * phase run more than once is summed. Jar scans are recorded from the scanning threads, so everything is thread safe.
+ * <p>
+ * The peak heap is the highest heap usage sampled when the execution starts, when a phase ends, when a jar scan is
+ * recorded and when the metrics are reported. The heap is shared by the whole jvm, so the figure includes what other
+ * executions running at the same time (i.e. with -T, or in a daemon) use; the peak usage of the jvm memory pools is not
+ * reset, as that would disturb whoever else is reading it.
+ *
+ * @author Marco Nicolini
+ */
+public class ExecutionMetrics {
+
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    private final String goal;
+    private final long start = System.nanoTime();
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private final List<JarScan> jarScans = new ArrayList<>();
+    private final AtomicLong jars = new AtomicLong();
+    private final AtomicLong scansAvoided = new AtomicLong();
+    private final AtomicLong packages = new AtomicLong();
+    private final AtomicLong rootPackages = new AtomicLong();
+    private final AtomicLong rules = new AtomicLong();
+    private final AtomicLong peakHeapBytes = new AtomicLong();
+
+    private ExecutionMetrics(String goal) {
+        this.goal = Objects.requireNonNull(goal);
+        sampleHeap();
+    }
+
+    /**
+     * Starts collecting the metrics of an execution of the given goal.
+     */
+    public static ExecutionMetrics start(String goal) {
+        return new ExecutionMetrics(goal);
+    }
+
+    /**
+     * @return a running timer that adds its elapsed time to the given phase when closed.
+     */
+    public Phase phase(String name) {
+        return new Phase(name);
+    }
+
+    /**
+     * Records the scan of the jar of an artifact.
+     */
+    public synchronized void jarScanned(Artifact artifact, long bytesRead, long entries, int packages, long nanos) {
+        jarScans.add(new JarScan(artifact, bytesRead, entries, packages, nanos));
+        sampleHeap();
+    }
+
+    /**
+     * Sets the number of jars the configuration is generated from (scanned or not).
+     */
+    public void setJars(long jars) {
+        this.jars.set(jars);
+    }
+
+    /**
+     * Counts jars that were not scanned because they duplicate another dependency.
+     */
+    public void addScansAvoided(long scans) {
+        scansAvoided.addAndGet(scans);
+    }
+
+    /**
+     * Sets the number of packages found in the jars, before and after the reduction to the root packages.
+     */
+    public void setPackages(long packages, long rootPackages) {
+        this.packages.set(packages);
+        this.rootPackages.set(rootPackages);
+    }
+
+    public void setRules(long rules) {
+        this.rules.set(rules);
+    }
+
+    /**
+     * Logs the one line summary of the execution.
+     */
+    public synchronized void logSummary(Log log) {
+        sampleHeap();
+        final StringBuilder summary = new StringBuilder("umbrellone [" + goal + "] took ")
+                .append(seconds(System.nanoTime() - start));
+        if (!phaseNanos.isEmpty()) {
+            summary.append(" (");
+            phaseNanos.forEach((name, nanos) -> summary.append(name).append(' ').append(seconds(nanos)).append(", "));
+            summary.setLength(summary.length() - 2);
+            summary.append(')');
+        }
+        summary.append(": [").append(jars.get()).append("] jars, [").append(jarScans.size()).append("] scanned, [")
+                .append(scansAvoided.get()).append("] duplicates skipped, [")
+                .append(megabytes(bytesRead())).append("] read, [").append(entries()).append("] entries, [")
+                .append(packages.get()).append("] packages, [").append(rootPackages.get()).append("] root packages, [")
+                .append(rules.get()).append("] rules, peak heap [").append(megabytes(peakHeapBytes.get())).append(']');
+        log.info(summary.toString());
+    }
+
+    /**
+     * Writes the JSON report, with the details of the slowest jar scans.
+     *
+     * @param slowestJars the maximum number of jar scans to detail
+     */
+    public synchronized void writeReport(File file, int slowestJars) throws IOException {
+        sampleHeap();
+        final List<JarScan> slowest = new ArrayList<>(jarScans);
+        slowest.sort(Comparator.comparingLong((JarScan scan) -> scan.nanos).reversed());
+
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"goal\": " + quote(goal) + ",\n");
+            out.write("  \"totalMillis\": " + millis(System.nanoTime() - start) + ",\n");
+            out.write("  \"phasesMillis\": {");
+            String separator = "\n";
+            for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+                out.write(separator + "    " + quote(phase.getKey()) + ": " + millis(phase.getValue()));
+                separator = ",\n";
+            }
+            out.write(phaseNanos.isEmpty() ? "},\n" : "\n  },\n");
+            out.write("  \"jars\": " + jars.get() + ",\n");
+            out.write("  \"jarsScanned\": " + jarScans.size() + ",\n");
+            out.write("  \"scansAvoided\": " + scansAvoided.get() + ",\n");
+            out.write("  \"bytesRead\": " + bytesRead() + ",\n");
+            out.write("  \"entriesRead\": " + entries() + ",\n");
+            out.write("  \"packages\": " + packages.get() + ",\n");
+            out.write("  \"rootPackages\": " + rootPackages.get() + ",\n");
+            out.write("  \"rules\": " + rules.get() + ",\n");
+            out.write("  \"peakHeapBytes\": " + peakHeapBytes.get() + ",\n");
+            out.write("  \"slowestJars\": [");
+            separator = "\n";
+            for (JarScan scan : slowest.subList(0, Math.min(Math.max(slowestJars, 0), slowest.size()))) {
+                out.write(separator + "    {\"artifact\": " + quote(scan.artifact.getId()) +
+                        ", \"file\": " + quote(String.valueOf(scan.artifact.getFile())) +
+                        ", \"micros\": " + scan.nanos / 1_000 +
+                        ", \"bytesRead\": " + scan.bytesRead +
+                        ", \"entries\": " + scan.entries +
+                        ", \"packages\": " + scan.packages + "}");
+                separator = ",\n";
+            }
+            out.write(separator.equals("\n") ? "]\n" : "\n  ]\n");
+            out.write("}\n");
+        }
+    }
+
+    private synchronized void addPhase(String name, long nanos) {
+        phaseNanos.merge(name, nanos, Long::sum);
+    }
+
+    private long bytesRead() {
+        return jarScans.stream().mapToLong(scan -> scan.bytesRead).sum();
+    }
+
+    private long entries() {
+        return jarScans.stream().mapToLong(scan -> scan.entries).sum();
+    }
+
+    private void sampleHeap() {
+        peakHeapBytes.accumulateAndGet(MEMORY.getHeapMemoryUsage().getUsed(), Math::max);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.2fs", nanos / 1e9);
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1_000_000;
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static String quote(String value) {
+        final StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * A running phase timer.
+     */
+    public class Phase implements AutoCloseable {
+        private final String name;
+        private final long phaseStart = System.nanoTime();
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            addPhase(name, System.nanoTime() - phaseStart);
+            sampleHeap();
+        }
+    }
+
+    private static class JarScan {
+        final Artifact artifact;
+        final long bytesRead;
+        final long entries;
+        final int packages;
+        final long nanos;
+
+        JarScan(Artifact artifact, long bytesRead, long entries, int packages, long nanos) {
+            this.artifact = artifact;
+            this.bytesRead = bytesRead;
+            this.entries = entries;
+            this.packages = packages;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package dev.dimlight.umbrellone.shade;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.maven.artifact.Artifact;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Incrementally computed hash of the inputs of a goal, used to tell if anything changed since a previous execution.
+ * Files are identified by path, size and last modification time, their content is not read.
+ *
+ * @author Marco Nicolini
+ */
+public class Fingerprint {
+
+    private final Hasher hasher = Hashing.sha256().newHasher();
+
+    private Fingerprint() {}
+
+    public static Fingerprint create() {
+        return new Fingerprint();
+    }
+
+    public Fingerprint add(String value) {
+        final String nonNull = Objects.toString(value, "");
+        hasher.putInt(nonNull.length()).putString(nonNull, StandardCharsets.UTF_8);
+        return this;
+    }
+
+    public Fingerprint add(long value) {
+        hasher.putLong(value);
+        return this;
+    }
+
+    public Fingerprint add(File file) {
+        if (file == null) {
+            return add("<no file>");
+        }
+        add(file.getAbsolutePath());
+        if (file.exists()) {
+            hasher.putLong(file.length()).putLong(file.lastModified());
+        } else {
+            add("<missing>");
+        }
+        return this;
+    }
+
+    /**
+     * Adds the relative path, size and last modification time of every file and directory under the given directory:
+     * unlike the ones of a file, the size and modification time of a directory do not change when a file it holds is
+     * modified.
+     */
+    public Fingerprint addTree(File directory) throws IOException {
+        final Path root = directory.toPath();
+        final java.util.List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            paths = walk.sorted().collect(Collectors.toList());
+        }
+        hasher.putInt(paths.size());
+        for (Path path : paths) {
+            final File file = path.toFile();
+            add(root.relativize(path).toString().replace(File.separatorChar, '/'));
+            hasher.putLong(file.isDirectory() ? -1L : file.length()).putLong(file.lastModified());
+        }
+        return this;
+    }
+
+    public Fingerprint add(Artifact artifact) {
+        return add(artifact.getGroupId())
+                .add(artifact.getArtifactId())
+                .add(artifact.getVersion())
+                .add(artifact.getType())
+                .add(artifact.getClassifier())
+                .add(artifact.getFile());
+    }
+
+    public Fingerprint add(ShadePluginConfiguration conf) {
+        hasher.putInt(conf.getIncludedArtifacts().size());
+        conf.getIncludedArtifacts().forEach(this::add);
+        hasher.putInt(conf.getRelocationRules().size());
+        conf.getRelocationRules().forEach(rule -> add(rule.pattern).add(rule.shadedPattern));
+        return this;
+    }
+
+    /**
+     * @return the hex encoded hash of everything added so far, the fingerprint should not be used afterwards.
+     */
+    public String hash() {
+        return hasher.hash().toString();
+    }
+}
@@ -0,0 +1,116 @@
+package dev.dimlight.umbrellone.shade;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Bounded, in memory cache of the {@link PackageIndex} of artifacts shared by all the builds run by the same JVM (i.e.
+ * the long lived daemon of mvnd, which keeps the plugin class loader between builds).
+ * <p>
+ * Entries are keyed by the path, the size and the last modification time of the artifact file, so that a rebuilt jar
+ * is scanned again. The cache is capped by the estimated size of the indexes it holds, the least recently used entries
+ * are evicted first.
+ *
+ * @author Marco Nicolini
+ */
+public class JvmScanCache {
+
+    private static final Object LOCK = new Object();
+    private static JvmScanCache instance;
+
+    private final long maxBytes;
+    private final Cache<String, PackageIndex> indexes;
+
+    private JvmScanCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.indexes = maxBytes > 0 ?
+                CacheBuilder.newBuilder()
+                        .maximumWeight(maxBytes)
+                        .weigher((String key, PackageIndex index) -> estimatedBytes(key, index))
+                        .recordStats()
+                        .build() :
+                null;
+    }
+
+    /**
+     * @param maxBytes the maximum estimated size of the cached indexes, the cache is disabled if 0 or less
+     * @return the cache of this JVM, created (or recreated with the new cap, losing its content) if the requested cap
+     *         differs from the one of the current cache.
+     */
+    public static JvmScanCache of(long maxBytes) {
+        synchronized (LOCK) {
+            if (instance == null || instance.maxBytes != maxBytes) {
+                instance = new JvmScanCache(maxBytes);
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * @param node the dependency whose index is requested
+     * @param indexer the function that computes the index in case of cache miss
+     * @return the cached index for the given dependency, or the freshly computed one.
+     */
+    public PackageIndex get(DependencyNode node, Function<DependencyNode, PackageIndex> indexer) {
+        final File file = node.getArtifact().getFile();
+        if (indexes == null || file == null || !file.isFile()) {
+            return indexer.apply(node);
+        }
+
+        final String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        try {
+            // concurrent requests for the same key wait for the one computation in flight.
+            return indexes.get(key, () -> indexer.apply(node));
+        } catch (UncheckedExecutionException | ExecutionError e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause()); // the indexer throws no checked exception
+        }
+    }
+
+    /**
+     * Logs (at debug level) the statistics of the cache since it was created, to help tuning its cap.
+     */
+    public void logStats(Log log) {
+        if (indexes == null || !log.isDebugEnabled()) {
+            return;
+        }
+        final CacheStats stats = indexes.stats();
+        long weight = 0;
+        for (Map.Entry<String, PackageIndex> entry : indexes.asMap().entrySet()) {
+            weight += estimatedBytes(entry.getKey(), entry.getValue());
+        }
+        log.debug("jvm scan cache: [" + stats.hitCount() + "] hits, [" + stats.missCount() + "] misses, [" +
+                stats.evictionCount() + "] evictions, [" + indexes.size() + "] entries of about [" + weight + "/" +
+                maxBytes + "] bytes");
+    }
+
+    /**
+     * A rough estimate of the heap retained by an entry: the strings (shared between the packages and the root
+     * packages) plus the nodes of the sets holding them.
+     */
+    private static int estimatedBytes(String key, PackageIndex index) {
+        long bytes = 64 + 2L * key.length();
+        for (String pkg : index.getPackages()) {
+            bytes += 48 + 2L * pkg.length() + 32;
+        }
+        bytes += 32L * index.getRootPackages().size();
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,110 @@
+package dev.dimlight.umbrellone.shade;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The classes (and their bytes) that the {@link NativeShader} removed from each artifact because they are not
+ * reachable, see {@link ClassReachability}. Bytes are the uncompressed sizes of the class entries.
+ *
+ * @author Marco Nicolini
+ */
+public class MinimizationReport {
+
+    private final Map<String, Counts> countsByArtifact = new LinkedHashMap<>();
+
+    private MinimizationReport() {}
+
+    public static MinimizationReport create() {
+        return new MinimizationReport();
+    }
+
+    /**
+     * The counts of a single artifact.
+     */
+    static class Counts {
+        long classes;
+        long bytes;
+        long removedClasses;
+        long removedBytes;
+
+        synchronized void add(long size, boolean removed) {
+            classes++;
+            bytes += size;
+            if (removed) {
+                removedClasses++;
+                removedBytes += size;
+            }
+        }
+    }
+
+    synchronized Counts countsOf(Artifact artifact) {
+        return countsByArtifact.computeIfAbsent(idOf(artifact), id -> new Counts());
+    }
+
+    /**
+     * Logs the total of the classes and bytes removed.
+     */
+    public synchronized void logSummary(Log log) {
+        final Counts total = total();
+        log.info("minimization removed [" + total.removedClasses + "] of [" + total.classes + "] classes, [" +
+                megabytes(total.removedBytes) + "] of [" + megabytes(total.bytes) + "] from [" +
+                countsByArtifact.size() + "] artifacts");
+    }
+
+    /**
+     * Writes the report as a text file, one artifact per line (the ones losing more bytes first) followed by the
+     * removed classes and bytes out of the classes and bytes it has.
+     */
+    public synchronized void writeTo(File file) throws IOException {
+        final List<Map.Entry<String, Counts>> entries = new ArrayList<>(countsByArtifact.entrySet());
+        entries.sort(Comparator.comparing((Map.Entry<String, Counts> entry) -> -entry.getValue().removedBytes)
+                .thenComparing(Map.Entry::getKey));
+
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            out.write("# artifact=removed classes/classes,removed bytes/bytes");
+            out.newLine();
+            for (Map.Entry<String, Counts> entry : entries) {
+                write(out, entry.getKey(), entry.getValue());
+            }
+            write(out, "total", total());
+        }
+    }
+
+    private static void write(BufferedWriter out, String id, Counts counts) throws IOException {
+        out.write(id + "=" + counts.removedClasses + "/" + counts.classes + "," + counts.removedBytes + "/" + counts.bytes);
+        out.newLine();
+    }
+
+    private Counts total() {
+        final Counts total = new Counts();
+        for (Counts counts : countsByArtifact.values()) {
+            total.classes += counts.classes;
+            total.bytes += counts.bytes;
+            total.removedClasses += counts.removedClasses;
+            total.removedBytes += counts.removedBytes;
+        }
+        return total;
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static String idOf(Artifact artifact) {
+        return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion();
+    }
+}
@@ -0,0 +1,340 @@
+package dev.dimlight.umbrellone.shade;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * In-process alternative to the maven-shade-plugin: relocates the classes of the project and of the included artifacts
+ * according to a {@link ShadePluginConfiguration} and writes everything in a single jar.
+ * <p>
+ * Jars are read and relocated in parallel, while the output is written in the order of the inputs (project first) so
+ * that the result does not depend on the scheduling: the same inputs give a byte-identical jar. When several jars
+ * contain the same entry the first one wins, as in the shade plugin. Signature files and module descriptors of the
+ * dependencies are dropped, since relocation invalidates them. Classes are relocated by rewriting their constant pool
+ * (see {@link ClassFileRelocator}), the few it can't handle by an asm ClassRemapper.
+ * <p>
+ * With a {@link RelocatedFragmentCache}, the relocated entries of the dependencies are taken from the cache when their
+ * jar and the relocation rules did not change, and copied in the output without being deflated again: only the project
+ * and the changed dependencies are relocated.
+ * <p>
+ * With a {@link ClassReachability}, the classes of the dependencies that are not reachable from the project are not
+ * written, and counted in a {@link MinimizationReport}.
+ *
+ * @author Marco Nicolini
+ */
+public class NativeShader {
+
+    private static final String MULTI_RELEASE_PREFIX = "META-INF/versions/";
+
+    private final Log log;
+    private final int parallelism;
+    private final int compressionLevel;
+    private final boolean storeCompressed;
+    private final File fragmentCacheDirectory;
+    private final String pluginVersion;
+
+    private NativeShader(Log log, int parallelism, int compressionLevel, boolean storeCompressed, File fragmentCacheDirectory,
+                         String pluginVersion) {
+        this.log = Objects.requireNonNull(log);
+        this.parallelism = Math.max(1, parallelism);
+        this.compressionLevel = compressionLevel;
+        this.storeCompressed = storeCompressed;
+        this.fragmentCacheDirectory = fragmentCacheDirectory;
+        this.pluginVersion = pluginVersion;
+    }
+
+    public static NativeShader of(Log log, int parallelism) {
+        return new NativeShader(log, parallelism, Deflater.DEFAULT_COMPRESSION, true, null, null);
+    }
+
+    /**
+     * @param compressionLevel the deflate level of the output jar, see {@link ShadedJarWriter}
+     * @param storeCompressed whether already compressed resources are stored instead of deflated
+     */
+    public static NativeShader of(Log log, int parallelism, int compressionLevel, boolean storeCompressed) {
+        return new NativeShader(log, parallelism, compressionLevel, storeCompressed, null, null);
+    }
+
+    /**
+     * @param fragmentCacheDirectory the directory of the {@link RelocatedFragmentCache}, if null the cache is disabled
+     * @param pluginVersion the version of this plugin, fragments written by other versions are not reused
+     */
+    public static NativeShader of(Log log, int parallelism, int compressionLevel, boolean storeCompressed, File fragmentCacheDirectory,
+                                  String pluginVersion) {
+        return new NativeShader(log, parallelism, compressionLevel, storeCompressed, fragmentCacheDirectory, pluginVersion);
+    }
+
+    /**
+     * @param projectJar the main artifact of the project, classes referencing relocated packages are rewritten
+     * @param conf the configuration listing the artifacts to include and the relocation rules to apply
+     * @param output the jar to write
+     */
+    public void shade(File projectJar, ShadePluginConfiguration conf, File output) throws MojoExecutionException {
+        shade(projectJar, conf, output, null, MinimizationReport.create());
+    }
+
+    /**
+     * @param reachability the classes of the included artifacts to write, if null all of them are written
+     * @param report the report of the classes that are not written because they are not reachable
+     */
+    public void shade(File projectJar, ShadePluginConfiguration conf, File output, ClassReachability reachability,
+                      MinimizationReport report) throws MojoExecutionException {
+        final PackageRelocator relocator = PackageRelocator.of(conf.getRelocationRules());
+        final RelocatedFragmentCache fragments = RelocatedFragmentCache.of(log, fragmentCacheDirectory, pluginVersion, conf,
+                compressionLevel, storeCompressed);
+
+        // classes are filtered by their relocated name, the only one known for the entries of a cached fragment.
+        final Set<String> keptClasses = new HashSet<>();
+        if (reachability != null) {
+            reachability.getReachable().forEach(className -> keptClasses.add(relocator.map(className)));
+        }
+
+        final List<File> inputs = new ArrayList<>();
+        final List<MinimizationReport.Counts> counts = new ArrayList<>();
+        inputs.add(projectJar);
+        counts.add(null);
+        for (Artifact artifact : conf.getIncludedArtifacts()) {
+            inputs.add(artifact.getFile());
+            counts.add(reachability != null ? report.countsOf(artifact) : null);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+                .setNameFormat("umbrellone-shade-%d")
+                .setDaemon(true)
+                .build());
+
+        // a bounded window of jars is relocated ahead of the writer, to keep in memory only a few jars at a time.
+        final int window = parallelism * 2;
+        final Deque<Future<List<RelocatedEntry>>> pending = new ArrayDeque<>();
+        final Set<String> written = new HashSet<>();
+        int submitted = 0;
+        int duplicates = 0;
+
+        try (ShadedJarWriter out = ShadedJarWriter.open(output, compressionLevel, storeCompressed, parallelism)) {
+            while (submitted < inputs.size() || !pending.isEmpty()) {
+                while (submitted < inputs.size() && pending.size() < window) {
+                    final File input = inputs.get(submitted);
+                    final boolean isProject = submitted == 0;
+                    final Minimization minimization = isProject || reachability == null ? null
+                            : new Minimization(keptClasses, counts.get(submitted));
+                    pending.add(executor.submit(() -> relocate(input, relocator, isProject, fragments, minimization)));
+                    submitted++;
+                }
+
+                for (RelocatedEntry entry : pending.removeFirst().get()) {
+                    if (written.contains(entry.name)) {
+                        log.debug("skipping duplicate entry [" + entry.name + "]");
+                        duplicates++;
+                        continue;
+                    }
+                    writeParentDirectories(out, entry.name, written);
+                    if (entry.raw != null) {
+                        out.addRaw(entry.raw, entry.content);
+                    } else {
+                        out.add(entry.name, entry.content, entry.time);
+                    }
+                    written.add(entry.name);
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write shaded jar [" + output + "]", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while shading", e);
+        } catch (ExecutionException e) {
+            throw new MojoExecutionException("Unable to relocate: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        log.info("shaded [" + inputs.size() + "] jars into [" + output + "], [" + written.size() + "] entries, [" +
+                duplicates + "] duplicates skipped");
+        fragments.logSummary();
+    }
+
+    private static void writeParentDirectories(ShadedJarWriter out, String name, Set<String> written) throws IOException {
+        for (int sep = name.indexOf('/'); sep > 0 && sep < name.length() - 1; sep = name.indexOf('/', sep + 1)) {
+            final String directory = name.substring(0, sep + 1);
+            if (written.add(directory)) {
+                out.addDirectory(directory);
+            }
+        }
+    }
+
+    private static List<RelocatedEntry> relocate(File jar, PackageRelocator relocator, boolean isProject,
+                                                 RelocatedFragmentCache fragments, Minimization minimization) throws IOException {
+        if (isProject || !fragments.isEnabled()) {
+            return relocate(jar, relocator, isProject, minimization);
+        }
+        final List<RelocatedFragmentCache.RawEntry> rawEntries = fragments.get(jar, out -> {
+            for (RelocatedEntry entry : relocate(jar, relocator, false, null)) {
+                out.add(entry.name, entry.content, entry.time);
+            }
+        });
+        final List<RelocatedEntry> entries = new ArrayList<>(rawEntries.size());
+        for (RelocatedFragmentCache.RawEntry raw : rawEntries) {
+            if (minimization == null || minimization.keep(raw.entry.name, raw.entry.size)) {
+                entries.add(new RelocatedEntry(raw.entry.name, raw.data, raw.entry));
+            }
+        }
+        return entries;
+    }
+
+    private static List<RelocatedEntry> relocate(File jar, PackageRelocator relocator, boolean isProject,
+                                                 Minimization minimization) throws IOException {
+        final List<RelocatedEntry> entries = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(jar)) {
+            final Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                final ZipEntry entry = zipEntries.nextElement();
+                final String name = entry.getName();
+                if (entry.isDirectory() || (!isProject && isInvalidatedByRelocation(name))) {
+                    continue;
+                }
+
+                final String relocatedName = relocateEntryName(name, relocator);
+                final byte[] content = read(zip, entry);
+                if (minimization != null && !minimization.keep(relocatedName, content.length)) {
+                    continue;
+                }
+
+                entries.add(new RelocatedEntry(
+                        relocatedName,
+                        name.endsWith(".class") ? relocateClass(content, relocator) : content,
+                        entry.getTime()));
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+        try (InputStream in = zip.getInputStream(entry)) {
+            final long size = entry.getSize();
+            if (size < 0 || size > Integer.MAX_VALUE - 8) {
+                return ByteStreams.toByteArray(in);
+            }
+            // the size is the one declared by the central directory, the data must match it.
+            final byte[] content = new byte[(int) size];
+            ByteStreams.readFully(in, content);
+            if (in.read() != -1) {
+                throw new ZipException("Entry [" + entry.getName() + "] is bigger than its declared size");
+            }
+            return content;
+        }
+    }
+
+    private static String relocateEntryName(String name, PackageRelocator relocator) {
+        String prefix = "";
+        String path = name;
+        if (name.startsWith(MULTI_RELEASE_PREFIX)) { // META-INF/versions/N/a/b/C.class
+            final int versionEnd = name.indexOf('/', MULTI_RELEASE_PREFIX.length());
+            if (versionEnd < 0) {
+                return name;
+            }
+            prefix = name.substring(0, versionEnd + 1);
+            path = name.substring(versionEnd + 1);
+        } else if (name.startsWith("META-INF/")) {
+            return name;
+        }
+
+        final String relocated = relocator.relocatePath(path);
+        return relocated != null ? prefix + relocated : name;
+    }
+
+    private static byte[] relocateClass(byte[] content, PackageRelocator relocator) {
+        // most classes only need their constant pool rewritten, the others are parsed and written again by asm.
+        final byte[] relocated = ClassFileRelocator.of(relocator).relocate(content);
+        if (relocated != null) {
+            return relocated;
+        }
+        final ClassReader reader = new ClassReader(content);
+        final ClassWriter writer = new ClassWriter(0);
+        reader.accept(new ClassRemapper(writer, relocator), 0);
+        return writer.toByteArray();
+    }
+
+    private static boolean isInvalidatedByRelocation(String name) {
+        if (name.endsWith("module-info.class")) {
+            return true;
+        }
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0) {
+            return false;
+        }
+        return name.endsWith(".SF") || name.endsWith(".DSA") || name.endsWith(".RSA") || name.endsWith(".EC");
+    }
+
+    /**
+     * Tells which classes of an artifact are written, counting the ones that are not.
+     */
+    private static class Minimization {
+        final Set<String> keptClasses;
+        final MinimizationReport.Counts counts;
+
+        Minimization(Set<String> keptClasses, MinimizationReport.Counts counts) {
+            this.keptClasses = keptClasses;
+            this.counts = counts;
+        }
+
+        /**
+         * @param name the relocated name of an entry
+         * @param size the uncompressed size of the entry
+         */
+        boolean keep(String name, long size) {
+            final String className = ClassReachability.classOf(name);
+            if (className == null) {
+                return true;
+            }
+            final boolean kept = keptClasses.contains(className);
+            counts.add(size, !kept);
+            return kept;
+        }
+    }
+
+    private static class RelocatedEntry {
+        final String name;
+        final byte[] content;
+        final long time;
+        // the entry of a cached fragment, whose content is the data stored in the fragment (i.e. still compressed).
+        final ZipCentralDirectory.Entry raw;
+
+        RelocatedEntry(String name, byte[] content, long time) {
+            this.name = name;
+            this.content = content;
+            this.time = time;
+            this.raw = null;
+        }
+
+        RelocatedEntry(String name, byte[] rawContent, ZipCentralDirectory.Entry raw) {
+            this.name = name;
+            this.content = rawContent;
+            this.time = -1;
+            this.raw = raw;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package dev.dimlight.umbrellone.shade;
+
+import io.vavr.collection.Set;
+
+import java.util.Objects;
+
+/**
+ * The packages found in a single artifact, together with the root packages derived from them.
+ *
+ * @author Marco Nicolini
+ */
+public class PackageIndex {
+
+    private final Set<String> packages;
+    private final Set<String> rootPackages;
+
+    private PackageIndex(Set<String> packages, Set<String> rootPackages) {
+        this.packages = Objects.requireNonNull(packages);
+        this.rootPackages = Objects.requireNonNull(rootPackages);
+    }
+
+    public static PackageIndex of(Set<String> packages, Set<String> rootPackages) {
+        return new PackageIndex(packages, rootPackages);
+    }
+
+    /**
+     * @return the complete set of packages found in the artifact.
+     */
+    public Set<String> getPackages() {
+        return packages;
+    }
+
+    /**
+     * @return the minimal set of packages containing all of {@link #getPackages()}, see {@link PackageUtils#rootPackages(Iterable)}.
+     */
+    public Set<String> getRootPackages() {
+        return rootPackages;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PackageIndex that = (PackageIndex) o;
+        return Objects.equals(packages, that.packages) &&
+                Objects.equals(rootPackages, that.rootPackages);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(packages, rootPackages);
+    }
+
+    @Override
+    public String toString() {
+        return "PackageIndex of [" + packages.size() + "] packages with roots " + rootPackages;
+    }
+}
@@ -0,0 +1,183 @@
+package dev.dimlight.umbrellone.shade;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
+import io.vavr.collection.Set;
+import io.vavr.collection.TreeSet;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+
+/**
+ * Persistent, on-disk cache of the {@link PackageIndex} of artifacts.
+ * <p>
+ * Entries are keyed by the artifact coordinates plus the size and the last modification time of the artifact file, so
+ * that a rebuilt snapshot is scanned again. The cache directory can be shared by concurrent builds: entries are written
+ * to a temporary file and atomically moved in place (readers never see partial entries), and writers of the same entry
+ * coordinate through a file lock so that an artifact is scanned only once.
+ *
+ * @author Marco Nicolini
+ */
+public class PackageIndexCache {
+
+    private static final String HEADER = "# umbrellone package index v1";
+    private static final String PACKAGES_SECTION = "[packages]";
+    private static final String ROOTS_SECTION = "[roots]";
+
+    // file locks are held by the whole jvm, threads of the same build need to be kept apart by other means.
+    private static final Striped<Lock> JVM_LOCKS = Striped.lock(64);
+
+    private final Log log;
+    private final Path directory;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private PackageIndexCache(Log log, Path directory) {
+        this.log = Objects.requireNonNull(log);
+        this.directory = directory;
+    }
+
+    /**
+     * @param directory the directory holding the cache entries, if null the cache is disabled.
+     */
+    public static PackageIndexCache of(Log log, File directory) {
+        return new PackageIndexCache(log, directory != null ? directory.toPath() : null);
+    }
+
+    /**
+     * @param node the dependency whose index is requested
+     * @param indexer the function that computes the index in case of cache miss
+     * @return the cached index for the given dependency, or the freshly computed one.
+     */
+    public PackageIndex get(DependencyNode node, Function<DependencyNode, PackageIndex> indexer) {
+        final File file = node.getArtifact().getFile();
+        if (directory == null || file == null || !file.isFile()) {
+            return indexer.apply(node);
+        }
+
+        final String key = keyOf(node.getArtifact(), file);
+        final String hash = Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString();
+        final Path entry = directory.resolve(hash.substring(0, 2)).resolve(hash + ".idx");
+
+        final PackageIndex cached = read(entry, key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        final Lock jvmLock = JVM_LOCKS.get(hash);
+        jvmLock.lock();
+        try {
+            Files.createDirectories(entry.getParent());
+            try (FileChannel lockChannel = FileChannel.open(entry.resolveSibling(hash + ".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+
+                // some other build might have written the entry while we were waiting for the lock.
+                final PackageIndex writtenMeanwhile = read(entry, key);
+                if (writtenMeanwhile != null) {
+                    hits.incrementAndGet();
+                    return writtenMeanwhile;
+                }
+
+                misses.incrementAndGet();
+                final PackageIndex index = indexer.apply(node);
+                write(entry, key, index);
+                return index;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+
+    /**
+     * Logs the number of cache hits and misses.
+     */
+    public void logSummary() {
+        if (directory != null) {
+            log.info("package index cache [" + directory + "]: [" + hits.get() + "] hits, [" + misses.get() + "] misses");
+        }
+    }
+
+    private static String keyOf(Artifact artifact, File file) {
+        return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getBaseVersion() + ":" +
+                artifact.getType() + ":" + Objects.toString(artifact.getClassifier(), "") + "|" +
+                file.length() + "|" + file.lastModified();
+    }
+
+    private PackageIndex read(Path entry, String key) {
+        final java.util.List<String> lines;
+        try {
+            lines = Files.readAllLines(entry, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("unable to read package index cache entry [" + entry + "], ignoring it", e);
+            return null;
+        }
+
+        final int packagesStart = lines.indexOf(PACKAGES_SECTION);
+        final int rootsStart = lines.indexOf(ROOTS_SECTION);
+        if (lines.size() < 2 || !lines.get(0).equals(HEADER) || !lines.get(1).equals(key) ||
+                packagesStart < 0 || rootsStart < packagesStart) {
+            log.warn("package index cache entry [" + entry + "] is invalid, ignoring it");
+            return null;
+        }
+
+        final Set<String> packages = TreeSet.ofAll(lines.subList(packagesStart + 1, rootsStart));
+        final Set<String> rootPackages = TreeSet.ofAll(lines.subList(rootsStart + 1, lines.size()));
+        return PackageIndex.of(packages, rootPackages);
+    }
+
+    private static void write(Path entry, String key, PackageIndex index) throws IOException {
+        final Path tmp = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                out.write(HEADER);
+                out.newLine();
+                out.write(key);
+                out.newLine();
+                out.write(PACKAGES_SECTION);
+                out.newLine();
+                for (String pkg : index.getPackages()) {
+                    out.write(pkg);
+                    out.newLine();
+                }
+                out.write(ROOTS_SECTION);
+                out.newLine();
+                for (String pkg : index.getRootPackages()) {
+                    out.write(pkg);
+                    out.newLine();
+                }
+            }
+
+            try {
+                Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package dev.dimlight.umbrellone.shade;
+
+import io.vavr.collection.Set;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Index of the packages of a shaded jar, each one with the artifacts that contributed it (relocated packages are
+ * indexed by their relocated name).
+ * <p>
+ * The index can be added to the shaded jar as a <code>META-INF/INDEX.LIST</code> jar index, so that class loaders can
+ * find the package of a class without probing entries, and written to a separate file mapping packages to artifacts.
+ *
+ * @author Marco Nicolini
+ */
+public class PackageJarIndex {
+
+    private static final String INDEX_LIST = "META-INF/INDEX.LIST";
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+    private final Log log;
+    private final Map<String, SortedSet<String>> artifactsByPackage;
+
+    private PackageJarIndex(Log log, Map<String, SortedSet<String>> artifactsByPackage) {
+        this.log = Objects.requireNonNull(log);
+        this.artifactsByPackage = artifactsByPackage;
+    }
+
+    /**
+     * Indexes the packages of a shaded jar.
+     *
+     * @param shadedJar the shaded jar
+     * @param conf the configuration the jar was shaded with
+     * @param project the artifact of the project, owner of the packages not coming from the included artifacts
+     * @param packagesOf the packages of an included artifact, usually already known from the scan of the dependencies
+     */
+    public static PackageJarIndex of(Log log, File shadedJar, ShadePluginConfiguration conf, Artifact project,
+                                     Function<Artifact, Set<String>> packagesOf) throws IOException {
+        final PackageUtils pkgUtils = PackageUtils.of(log);
+        final PackageRelocator relocator = PackageRelocator.of(conf.getRelocationRules());
+
+        final Map<String, SortedSet<String>> artifactsByPackage = new TreeMap<>();
+        for (String pkg : pkgUtils.scanForPackages(shadedJar)) {
+            artifactsByPackage.put(pkg, new TreeSet<>());
+        }
+
+        for (Artifact artifact : conf.getIncludedArtifacts()) {
+            if (artifact.getFile() == null || !artifact.getFile().isFile()) {
+                continue;
+            }
+            for (String pkg : packagesOf.apply(artifact)) {
+                final String relocated = relocator.relocatePackage(pkg);
+                final SortedSet<String> artifacts = artifactsByPackage.get(relocated != null ? relocated : pkg);
+                if (artifacts != null) {
+                    artifacts.add(idOf(artifact));
+                }
+            }
+        }
+
+        for (SortedSet<String> artifacts : artifactsByPackage.values()) {
+            if (artifacts.isEmpty()) {
+                artifacts.add(idOf(project));
+            }
+        }
+        return new PackageJarIndex(log, artifactsByPackage);
+    }
+
+    /**
+     * Writes the index as a text file, one package per line followed by the (comma separated) artifacts contributing it.
+     */
+    public void writeTo(File file) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            out.write("# package -> artifacts");
+            out.newLine();
+            for (Map.Entry<String, SortedSet<String>> entry : artifactsByPackage.entrySet()) {
+                out.write(entry.getKey());
+                out.write('=');
+                out.write(String.join(",", entry.getValue()));
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Adds (or replaces) the <code>META-INF/INDEX.LIST</code> of the given jar, right after its manifest. The other
+     * entries are copied as they are, without being decompressed.
+     */
+    public void addIndexListTo(File jar, int parallelism) throws IOException {
+        final byte[] indexList = indexList(jar.getName()).getBytes(StandardCharsets.UTF_8);
+        final File indexed = new File(jar.getAbsoluteFile().getParentFile(), jar.getName() + ".umbrellone.tmp");
+        try {
+            try (ZipCentralDirectory in = ZipCentralDirectory.open(jar.toPath());
+                 ShadedJarWriter out = ShadedJarWriter.open(indexed, -1, true, parallelism)) {
+                boolean added = false;
+                for (ZipCentralDirectory.Entry entry : in.entries()) {
+                    if (entry.name.equals(INDEX_LIST)) {
+                        log.debug("replacing the existing [" + INDEX_LIST + "] of [" + jar + "]");
+                        continue;
+                    }
+                    if (!added && !entry.name.startsWith("META-INF/")) {
+                        out.add(INDEX_LIST, indexList, -1);
+                        added = true;
+                    }
+                    out.addRaw(in, entry);
+                    if (!added && entry.name.equals(MANIFEST)) {
+                        out.add(INDEX_LIST, indexList, -1);
+                        added = true;
+                    }
+                }
+                if (!added) {
+                    out.add(INDEX_LIST, indexList, -1);
+                }
+            }
+            Files.move(indexed.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(indexed.toPath());
+        }
+        log.info("added a jar index of [" + artifactsByPackage.size() + "] packages to [" + jar + "]");
+    }
+
+    private String indexList(String jarName) {
+        final StringBuilder index = new StringBuilder("JarIndex-Version: 1.0\n\n").append(jarName).append('\n');
+        for (String pkg : artifactsByPackage.keySet()) {
+            index.append(pkg.replace('.', '/')).append('\n');
+        }
+        return index.append('\n').toString();
+    }
+
+    private static String idOf(Artifact artifact) {
+        return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion();
+    }
+}
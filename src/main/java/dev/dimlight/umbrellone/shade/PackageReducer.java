@@ -0,0 +1,73 @@
+package dev.dimlight.umbrellone.shade;
+
+import com.google.common.base.Preconditions;
+import io.vavr.collection.List;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Incremental version of {@link PackageUtils#simplifyPackages(Iterable)}: packages are merged one at a time (i.e. the
+ * root packages of each jar as soon as it is scanned) and only the packages not contained in another merged package are
+ * kept, so that the memory needed is bound to the final set of packages instead of to all the packages ever merged.
+ * <p>
+ * Packages are merged in a {@link PackageTrie}, whose subtree below a kept package is dropped. The result does not
+ * depend on the order of the merged packages. Not thread safe.
+ *
+ * @author Marco Nicolini
+ */
+public class PackageReducer {
+
+    private final PackageTrie trie = PackageTrie.of(Collections.emptyList());
+    private final Set<PackageTrie.Node> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private PackageReducer() {}
+
+    public static PackageReducer of() {
+        return new PackageReducer();
+    }
+
+    /**
+     * Merges a package: it is dropped if an already merged package contains it, otherwise it replaces all the merged
+     * packages it contains.
+     *
+     * @param packageName a fully qualified package name (i.e. "com.google.common"), not empty, its segments are trimmed.
+     */
+    public void add(String packageName) {
+        Preconditions.checkState(!packageName.isEmpty()); // right now we don't support the root package here.
+
+        final PackageTrie.Node node = trie.add(packageName, kept::contains);
+        if (node == null) {
+            return; // contained by a package merged before
+        }
+
+        // whatever was below is contained by this package now.
+        final Deque<PackageTrie.Node> toVisit = new ArrayDeque<>();
+        node.forEachChild(toVisit::push);
+        while (!toVisit.isEmpty()) {
+            final PackageTrie.Node descendant = toVisit.pop();
+            if (!kept.remove(descendant)) {
+                descendant.forEachChild(toVisit::push);
+            }
+        }
+        node.removeChildren();
+        kept.add(node);
+    }
+
+    /**
+     * @return the number of packages kept so far.
+     */
+    public int size() {
+        return kept.size();
+    }
+
+    /**
+     * @return the kept packages, sorted.
+     */
+    public List<String> packages() {
+        return List.ofAll(kept).map(PackageTrie.Node::packageName).sorted();
+    }
+}
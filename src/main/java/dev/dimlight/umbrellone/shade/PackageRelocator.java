@@ -0,0 +1,123 @@
+package dev.dimlight.umbrellone.shade;
+
+import org.objectweb.asm.commons.Remapper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bytecode remapper applying all the relocation rules at once.
+ * <p>
+ * Instead of trying every rule against every name, the packages enclosing a name are looked up (innermost first) in a
+ * map of the relocated packages, so the cost of relocating a name depends on its depth and not on the number of rules.
+ * Rules apply to whole package segments: a rule for "a.b" relocates "a.b.C" and "a.b.c.D" but not "a.bc.D".
+ * String constants that look like class, package or resource names are relocated as well.
+ *
+ * @author Marco Nicolini
+ */
+public class PackageRelocator extends Remapper {
+
+    private final Map<String, String> relocatedPaths = new HashMap<>();
+    private final Map<String, String> relocatedPackages = new HashMap<>();
+    private final Set<String> firstSegments = new HashSet<>();
+    // the number of segments of the deepest relocated package, deeper packages enclosing a name are not looked up.
+    private int maxSegments;
+
+    private PackageRelocator(Iterable<RelocationRule> rules) {
+        for (RelocationRule rule : rules) {
+            relocatedPackages.put(rule.pattern, rule.shadedPattern);
+            relocatedPaths.put(rule.pattern.replace('.', '/'), rule.shadedPattern.replace('.', '/'));
+            final int firstSep = rule.pattern.indexOf('.');
+            firstSegments.add(firstSep < 0 ? rule.pattern : rule.pattern.substring(0, firstSep));
+            maxSegments = Math.max(maxSegments, rule.pattern.split("\\.", -1).length);
+        }
+    }
+
+    public static PackageRelocator of(Iterable<RelocationRule> rules) {
+        return new PackageRelocator(rules);
+    }
+
+    @Override
+    public String map(String internalName) {
+        final String relocated = relocate(internalName, '/', relocatedPaths, false);
+        return relocated != null ? relocated : internalName;
+    }
+
+    @Override
+    public Object mapValue(Object value) {
+        if (value instanceof String) {
+            final String relocated = relocateString((String) value);
+            return relocated != null ? relocated : value;
+        }
+        return super.mapValue(value);
+    }
+
+    /**
+     * @param path a slash separated path of a zip entry, i.e. "a/b/C.class" or "a/b/resource.txt"
+     * @return the relocated path, or null if no rule applies to it.
+     */
+    public String relocatePath(String path) {
+        return relocate(path, '/', relocatedPaths, false);
+    }
+
+    /**
+     * @param packageName a dotted package name, i.e. "a.b"
+     * @return the relocated package name, or null if no rule applies to it.
+     */
+    public String relocatePackage(String packageName) {
+        return relocate(packageName, '.', relocatedPackages, true);
+    }
+
+    /**
+     * @return the first segments of the relocated packages (i.e. "a" for "a.b"), names starting with other ones are
+     * never relocated.
+     */
+    Set<String> getFirstSegments() {
+        return Collections.unmodifiableSet(firstSegments);
+    }
+
+    private String relocateString(String value) {
+        if (value.indexOf('.') > 0) {
+            return relocate(value, '.', relocatedPackages, true);
+        }
+        if (value.startsWith("/")) {
+            final String relocated = relocate(value.substring(1), '/', relocatedPaths, true);
+            return relocated != null ? "/" + relocated : null;
+        }
+        return relocate(value, '/', relocatedPaths, true);
+    }
+
+    private String relocate(String name, char sep, Map<String, String> relocated, boolean includeWholeName) {
+        final int firstSep = name.indexOf(sep);
+        final String firstSegment = firstSep < 0 ? name : name.substring(0, firstSep);
+        if (!firstSegments.contains(firstSegment)) {
+            return null;
+        }
+
+        if (includeWholeName) {
+            final String relocatedName = relocated.get(name);
+            if (relocatedName != null) {
+                return relocatedName;
+            }
+        }
+
+        int deepest = firstSep;
+        for (int segments = 1; segments < maxSegments && deepest >= 0; segments++) {
+            final int next = name.indexOf(sep, deepest + 1);
+            if (next < 0) {
+                break;
+            }
+            deepest = next;
+        }
+        for (int end = deepest; end > 0; end = name.lastIndexOf(sep, end - 1)) {
+            final String relocatedPrefix = relocated.get(name.substring(0, end));
+            if (relocatedPrefix != null) {
+                return relocatedPrefix + name.substring(end);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,144 @@
+package dev.dimlight.umbrellone.shade;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import io.vavr.collection.Set;
+import io.vavr.collection.TreeSet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A mutable trie of fully qualified package names, one node per package segment (i.e. "com", "google", "common").
+ * <p>
+ * Children are indexed by segment and segment strings are interned, so that the many tries built while scanning
+ * dependencies share the same segment instances. Not thread safe.
+ *
+ * @author Marco Nicolini
+ */
+public class PackageTrie {
+
+    private static final Interner<String> SEGMENTS = Interners.newWeakInterner();
+
+    private final Node root = new Node(null, null);
+
+    private PackageTrie() {}
+
+    public static PackageTrie of(Iterable<String> packageNames) {
+        final PackageTrie trie = new PackageTrie();
+        for (String packageName : packageNames) {
+            trie.add(packageName);
+        }
+        return trie;
+    }
+
+    /**
+     * Adds a package, creating the nodes of its segments that are not in the trie yet.
+     *
+     * @param packageName a fully qualified package name, its segments are trimmed.
+     */
+    public void add(String packageName) {
+        add(packageName, node -> false);
+    }
+
+    /**
+     * Same as {@link #add(String)}, stopping at the first node of the path of the package matching the given predicate.
+     *
+     * @return the node of the package, or null if the predicate matched one of the nodes of its path (itself included).
+     */
+    Node add(String packageName, Predicate<Node> stopAt) {
+        Node node = root;
+        int start = 0;
+        while (true) {
+            final int end = packageName.indexOf('.', start);
+            final String segment = packageName.substring(start, end < 0 ? packageName.length() : end).trim();
+            node = node.childOrCreate(segment);
+            if (stopAt.test(node)) {
+                return null;
+            }
+            if (end < 0) {
+                return node;
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Collects the "root" packages, that is the packages found descending the trie until a node with zero or more
+     * than one child is found. The fake root node of the trie is never returned (an empty package name is returned
+     * only if it was added).
+     *
+     * @return the minimal set of packages that is able to contain all the added ones.
+     */
+    public Set<String> rootPackages() {
+        final java.util.List<String> rootPackages = new ArrayList<>();
+        final Deque<Node> toVisit = new ArrayDeque<>();
+        root.forEachChild(toVisit::push);
+
+        while (!toVisit.isEmpty()) {
+            final Node node = toVisit.pop();
+            if (node.childCount() != 1) {
+                rootPackages.add(node.packageName());
+            } else {
+                node.forEachChild(toVisit::push);
+            }
+        }
+
+        return TreeSet.ofAll(rootPackages);
+    }
+
+    static class Node {
+        final Node parent;
+        final String segment;
+        Map<String, Node> children; // lazily created, most of the nodes are leaves.
+
+        Node(Node parent, String segment) {
+            this.parent = parent;
+            this.segment = segment;
+        }
+
+        Node childOrCreate(String segment) {
+            if (children == null) {
+                children = new HashMap<>(4);
+            }
+            Node child = children.get(segment);
+            if (child == null) {
+                child = new Node(this, SEGMENTS.intern(segment));
+                children.put(child.segment, child);
+            }
+            return child;
+        }
+
+        int childCount() {
+            return children == null ? 0 : children.size();
+        }
+
+        void forEachChild(java.util.function.Consumer<Node> action) {
+            if (children != null) {
+                children.values().forEach(action);
+            }
+        }
+
+        /**
+         * Drops the whole subtree below this node.
+         */
+        void removeChildren() {
+            children = null;
+        }
+
+        /**
+         * @return the dotted name of the package of this node, rebuilt walking up to the (excluded) root.
+         */
+        String packageName() {
+            final StringBuilder name = new StringBuilder(segment);
+            for (Node ancestor = parent; ancestor.parent != null; ancestor = ancestor.parent) {
+                name.insert(0, '.').insert(0, ancestor.segment);
+            }
+            return name.toString();
+        }
+    }
+}
@@ -1,23 +1,21 @@
 package dev.dimlight.umbrellone.shade;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
-import dev.dimlight.umbrellone.util.MoreStrings;
-import io.vavr.Tuple2;
 import io.vavr.collection.List;
 import io.vavr.collection.Set;
 import io.vavr.collection.TreeSet;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.shared.dependency.graph.DependencyNode;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Objects;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 /**
  * Helper to reason about packages hierarchies.
@@ -27,6 +25,22 @@ import java.util.jar.JarFile;
 public class PackageUtils {
 
     private static final String PATH_SEP = "/";
+
+    /**
+     * Orders package names as strings, except for the dot that comes before any other character.
+     */
+    private static final Comparator<String> DOT_FIRST = (a, b) -> {
+        final int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            final char ca = a.charAt(i);
+            final char cb = b.charAt(i);
+            if (ca != cb) {
+                return ca == '.' ? -1 : cb == '.' ? 1 : Character.compare(ca, cb);
+            }
+        }
+        return Integer.compare(a.length(), b.length());
+    };
+
     private final Log log;
 
     private PackageUtils(Log log) {
@@ -39,129 +53,165 @@ public class PackageUtils {
 
     /**
      * Given a dependency node, scans its jar file and extract the complete list of packages contained therein.
+     * Every directory holding at least one file (outside of META-INF) is considered a package, whether the jar has
+     * explicit entries for directories or not.
      * @param node the maven dependency node from which to get the location of the artifact
      * @return the complete list of fully qualified java packages found in the artifact of the given dependency node.
      */
     public Set<String> scanForPackages(DependencyNode node) {
-        final java.util.Set<String> directories = new java.util.TreeSet<>();
-        final java.util.Set<String> directoriesWithFiles = new java.util.TreeSet<>();
-
-        log.info("searching for packages in [" + node.getArtifact().getFile() + "]");
-        try (JarFile jar = new JarFile(node.getArtifact().getFile())) {
-
-            final Enumeration<JarEntry> en = jar.entries();
-            while (en.hasMoreElements()) {
-                JarEntry entry = en.nextElement();
-                String entryName = entry.getName();
-
-                if (entryName == null) {
-                    continue;
-                }
-
-                if (entryName.endsWith(PATH_SEP)) { // it's a directory. Might be considered a package if it has files in it
-                    directories.add(MoreStrings.removeSuffix(entryName, "/"));
-                    continue;
-                }
-
-                if (entryName.startsWith("META-INF")) { // skip meta inf.
-                    continue;
-                }
-
-                final String parentDir = baseName(entryName);
-                if (directories.contains(parentDir)) {
-                    directoriesWithFiles.add(parentDir);
-                }
+        return scanForPackages(node, null);
+    }
 
-            }
+    /**
+     * Same as {@link #scanForPackages(DependencyNode)}, recording the scan in the given metrics.
+     * @param metrics the metrics of the current execution, can be null
+     */
+    public Set<String> scanForPackages(DependencyNode node, ExecutionMetrics metrics) {
+        final File file = node.getArtifact().getFile();
+        log.info("searching for packages in [" + file + "]");
+
+        final long start = System.nanoTime();
+        final PackageCollector collector = new PackageCollector();
+        final long bytesRead;
+        try {
+            bytesRead = ZipCentralDirectory.forEachEntryName(file.toPath(), collector);
         } catch (IOException e) {
-            throw new UncheckedIOException(e);
+            throw new UncheckedIOException("Unable to scan [" + file + "] for packages", e);
         }
 
-        return directoriesWithFiles.stream()
-                .map(PackageUtils::dirToPkgName)
-                .collect(TreeSet.collector(String::compareTo));
-    }
-
-    private static String baseName(String entry) {
-        return MoreStrings.splitOnLast(entry, PATH_SEP)._1;
+        final Set<String> packages = TreeSet.ofAll(collector.packages);
+        if (metrics != null) {
+            metrics.jarScanned(node.getArtifact(), bytesRead, collector.entries, packages.size(), System.nanoTime() - start);
+        }
+        return packages;
     }
 
-    private static String dirToPkgName(String dir) {
-        return dir.replaceAll(PATH_SEP, ".");
+    /**
+     * @param jar a jar file
+     * @return the packages of the jar, as in {@link #scanForPackages(DependencyNode)}.
+     */
+    public Set<String> scanForPackages(File jar) throws IOException {
+        final PackageCollector collector = new PackageCollector();
+        ZipCentralDirectory.forEachEntryName(jar.toPath(), collector);
+        return TreeSet.ofAll(collector.packages);
     }
 
     /**
-     * @param packageNames  a list of fully qualified java package names (i.e. "org.junit", "com.google.common").
-     * @return the minimal list of packages that is able to contain all of them.
-     *         The root package is present in this list only if it's present in the output. // FIXME this makes no sense.
+     * Collects the parent directories of files from raw zip entry names, only turning new directories into strings.
      */
-    public Set<String> rootPackages(Iterable<String> packageNames) {
-        final Node root = Node.of("root");
-        List.ofAll(packageNames)
-                .map(PackageUtils::breakApart)
-                .map(p -> p.prepend("root")) // common fake root to all packages so that they fall under it.
-                .forEachWithIndex((p, i) -> root.addTail(p.tail()));
-
-        return Node.findRootPackages(root, List.of("root"))
-                .map(p -> MoreStrings.removePrefix("root.", p));
-    }
+    private static class PackageCollector implements ZipCentralDirectory.EntryNameVisitor {
+        private static final byte[] META_INF = "META-INF".getBytes(StandardCharsets.US_ASCII);
+
+        final java.util.List<String> packages = new ArrayList<>();
+        final java.util.Set<ByteSlice> seenDirectories = new HashSet<>();
+        final ByteSlice probe = new ByteSlice();
+        final ByteSlice lastDirectory = new ByteSlice();
+        long entries;
+
+        @Override
+        public void visit(byte[] buf, int offset, int length) {
+            entries++;
+            if (length == 0 || buf[offset + length - 1] == '/' || isMetaInf(buf, offset, length)) {
+                return; // directories are only packages if they contain files, meta-inf is skipped.
+            }
 
-    private static List<String> breakApart(String packageName) {
-        return List.ofAll(Splitter.on(".").trimResults().split(packageName));
-    }
+            int lastSep = offset + length - 1;
+            while (lastSep >= offset && buf[lastSep] != '/') {
+                lastSep--;
+            }
+            if (lastSep <= offset) {
+                return; // a file in the root of the jar (or a degenerate name), not in a package.
+            }
 
-    private static String glueBack(List<String> packageName) {
-        return Joiner.on(".").join(packageName);
+            probe.set(buf, offset, lastSep - offset);
+            if (probe.equals(lastDirectory)) {
+                return; // entries of the same directory are usually next to each other.
+            }
+
+            lastDirectory.copyFrom(probe);
+            if (!seenDirectories.contains(probe)) {
+                final ByteSlice directory = probe.copy();
+                seenDirectories.add(directory);
+                packages.add(dirToPkgName(new String(directory.bytes, 0, directory.length, StandardCharsets.UTF_8)));
+            }
+        }
+
+        private static boolean isMetaInf(byte[] buf, int offset, int length) {
+            return length >= META_INF.length && ByteSlice.regionEquals(buf, offset, META_INF, 0, META_INF.length);
+        }
     }
 
     /**
-     * Represents a node in a fully qualified package name.
+     * A slice of a byte array, with value semantics.
      */
-    private static class Node {
-        static final Comparator<Node> COMPARATOR = Comparator.comparing(node -> node.value);
-        String value;
-        Set<Node> children = TreeSet.empty(COMPARATOR);
-
-        static Node of(String value) {
-            final Node node = new Node();
-            node.value = value;
-            return node;
+    private static class ByteSlice {
+        byte[] bytes;
+        int offset;
+        int length;
+
+        void set(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
         }
 
-        void addTail(List<String> pkg) {
-            if (pkg.isEmpty()) {
-                return;
+        /**
+         * Copies the content of the other slice in this one, reusing the backing array when big enough.
+         */
+        void copyFrom(ByteSlice other) {
+            if (bytes == null || bytes.length < other.length) {
+                bytes = new byte[Math.max(other.length, 64)];
             }
+            System.arraycopy(other.bytes, other.offset, bytes, 0, other.length);
+            offset = 0;
+            length = other.length;
+        }
 
-            // either the first child already exists or needs to be created.
-            final Node nodeOnWhichToAdd = children
-                    .find(child -> child.value.equals(pkg.head()))
-                    .getOrElse(() -> Node.of(pkg.head()));
+        ByteSlice copy() {
+            final ByteSlice copy = new ByteSlice();
+            copy.set(Arrays.copyOfRange(bytes, offset, offset + length), 0, length);
+            return copy;
+        }
 
-            this.children = this.children.add(nodeOnWhichToAdd);
-            nodeOnWhichToAdd.addTail(pkg.tail());
+        static boolean regionEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+            for (int i = 0; i < length; i++) {
+                if (a[aOffset + i] != b[bOffset + i]) {
+                    return false;
+                }
+            }
+            return true;
         }
 
-        /**
-         * Visiting method that collects all the "root" packages from the package node tree
-         *
-         * @param node the root from which to start traversing
-         * @param currentPath the dotted.joined.path of the current node, i.e. List.of("root")
-         * @return the list of root packages.
-         */
-        private static Set<String> findRootPackages(Node node, List<String> currentPath) {
-            // base case
-            // stop when you encounter zero o >1 child, but don't stop at the root.
-            if (node.children.size() != 1 && currentPath.size() > 1) {
-                return TreeSet.of(glueBack(currentPath));
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ByteSlice)) return false;
+            final ByteSlice that = (ByteSlice) o;
+            return length == that.length && regionEquals(bytes, offset, that.bytes, that.offset, length);
+        }
 
-            // go deep in every child
-            } else {
-                return node.children.flatMap(child -> findRootPackages(child, currentPath.append(child.value)));
+        @Override
+        public int hashCode() {
+            int hash = 1;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + bytes[i];
             }
+            return hash;
         }
     }
 
+    private static String dirToPkgName(String dir) {
+        return dir.replace(PATH_SEP, ".");
+    }
+
+    /**
+     * @param packageNames  a list of fully qualified java package names (i.e. "org.junit", "com.google.common").
+     * @return the minimal list of packages that is able to contain all of them.
+     *         The root package is present in this list only if it's present in the output. // FIXME this makes no sense.
+     */
+    public Set<String> rootPackages(Iterable<String> packageNames) {
+        return PackageTrie.of(packageNames).rootPackages();
+    }
+
     /**
      * Similar to root packages but won't ever return package that was not in the list to beging with.
      * E.g. given ('a.b', 'a.c', 'a.b.c' will return ('a.b', 'a.c), not ('a') like {@link #rootPackages(Iterable)} would do.
@@ -170,21 +220,36 @@ public class PackageUtils {
      *          present in the given list
      */
     public List<String> simplifyPackages(Iterable<String> packageNames) {
-        // this implementation is naive and not optimal.
-
-        // we check all packages in couples and discard any package that can be contained in another.
-        final Set<String> all = TreeSet.ofAll(String::compareTo, Objects.requireNonNull(packageNames));
-        Set<String> discardedPkgs = TreeSet.empty(String::compareTo);
-
-        for (Tuple2<String, String> pp : List.ofAll(packageNames).crossProduct()) {
-            Preconditions.checkState(!pp._1.isEmpty()); // right now we don't support the root package here.
-
-            if (pp._1.startsWith(pp._2 + ".")) { // 1 is contained in 2
-                log.info("package [" + pp._1 + "] will be omitted because is contained by [" + pp._2 + "]");
-                discardedPkgs = discardedPkgs.add(pp._1);
+        // sorting with the dot before any other character puts every package right before the packages it contains,
+        // so a single pass discarding whatever is contained in the last kept package is enough.
+        final java.util.Set<String> sorted = new java.util.TreeSet<>(DOT_FIRST);
+        Objects.requireNonNull(packageNames).forEach(sorted::add);
+
+        final java.util.List<String> kept = new ArrayList<>();
+        final java.util.List<String> omitted = new ArrayList<>();
+        final boolean reportOmitted = log.isDebugEnabled();
+        String container = null;
+        for (String pkg : sorted) {
+            Preconditions.checkState(!pkg.isEmpty()); // right now we don't support the root package here.
+
+            if (container != null && isContainedIn(pkg, container)) {
+                if (reportOmitted) {
+                    omitted.add(pkg + " (in " + container + ")");
+                }
+            } else {
+                kept.add(pkg);
+                container = pkg;
             }
         }
 
-        return all.diff(discardedPkgs).toList();
+        if (!omitted.isEmpty()) {
+            log.debug("[" + omitted.size() + "] packages will be omitted because contained by other packages: " + omitted);
+        }
+
+        return List.ofAll(kept).sorted();
+    }
+
+    private static boolean isContainedIn(String pkg, String container) {
+        return pkg.length() > container.length() && pkg.charAt(container.length()) == '.' && pkg.startsWith(container);
     }
 }
@@ -0,0 +1,169 @@
+package dev.dimlight.umbrellone.shade;
+
+import com.google.common.hash.Hashing;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent, on-disk cache of the relocated entries of artifacts ("fragments"), used by the {@link NativeShader} to
+ * avoid relocating and deflating again the dependencies that did not change.
+ * <p>
+ * A fragment is a jar holding the relocated entries of an artifact exactly as they are written in the shaded jar
+ * (already deflated), so that they can be copied as they are. Fragments are content addressed: they are keyed by the
+ * checksum of the artifact file and by a hash of the relocation rules, of the plugin version and of the options
+ * affecting the written bytes, so a shaded jar assembled from fragments is byte-identical to one relocated from scratch.
+ * The cache directory can be shared by concurrent builds: fragments are written to a temporary file and atomically
+ * moved in place, and builds writing the same fragment write the same bytes.
+ *
+ * @author Marco Nicolini
+ */
+public class RelocatedFragmentCache {
+
+    private static final String FORMAT = "umbrellone relocated fragment v1";
+
+    private final Log log;
+    private final Path directory;
+    private final String rulesHash;
+    private final int compressionLevel;
+    private final boolean storeCompressed;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Writes the relocated entries of an artifact.
+     */
+    @FunctionalInterface
+    public interface FragmentWriter {
+        void writeTo(ShadedJarWriter out) throws IOException;
+    }
+
+    /**
+     * An entry of a fragment, with its data as stored in the fragment (i.e. still compressed).
+     */
+    public static class RawEntry {
+        public final ZipCentralDirectory.Entry entry;
+        public final byte[] data;
+
+        RawEntry(ZipCentralDirectory.Entry entry, byte[] data) {
+            this.entry = entry;
+            this.data = data;
+        }
+    }
+
+    private RelocatedFragmentCache(Log log, Path directory, String rulesHash, int compressionLevel, boolean storeCompressed) {
+        this.log = Objects.requireNonNull(log);
+        this.directory = directory;
+        this.rulesHash = rulesHash;
+        this.compressionLevel = compressionLevel;
+        this.storeCompressed = storeCompressed;
+    }
+
+    /**
+     * @param directory the directory holding the fragments, if null the cache is disabled.
+     * @param pluginVersion the version of this plugin, the relocation of an artifact might change with it
+     * @param conf the configuration whose relocation rules are applied to the fragments
+     * @param compressionLevel the deflate level of the fragments, see {@link ShadedJarWriter}
+     * @param storeCompressed whether already compressed resources are stored instead of deflated in the fragments
+     */
+    public static RelocatedFragmentCache of(Log log, File directory, String pluginVersion, ShadePluginConfiguration conf,
+                                            int compressionLevel, boolean storeCompressed) {
+        final Fingerprint rules = Fingerprint.create()
+                .add(FORMAT)
+                .add(pluginVersion)
+                .add(compressionLevel)
+                .add(storeCompressed ? 1 : 0)
+                .add(TimeZone.getDefault().getID()) // entry times are written as local dos times.
+                .add(conf.getRelocationRules().size());
+        conf.getRelocationRules().forEach(rule -> rules.add(rule.pattern).add(rule.shadedPattern));
+        return new RelocatedFragmentCache(log, directory != null ? directory.toPath() : null, rules.hash(),
+                compressionLevel, storeCompressed);
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * @param jar the artifact whose relocated entries are requested
+     * @param writer writes the relocated entries of the artifact in case of cache miss
+     * @return the entries of the cached fragment of the artifact, written by the given writer if it was not cached.
+     */
+    public List<RawEntry> get(File jar, FragmentWriter writer) throws IOException {
+        if (directory == null) {
+            throw new IllegalStateException("The relocated fragment cache is disabled");
+        }
+
+        final String checksum = com.google.common.io.Files.asByteSource(jar).hash(Hashing.sha256()).toString();
+        final String hash = Hashing.sha256().newHasher()
+                .putUnencodedChars(checksum)
+                .putUnencodedChars(rulesHash)
+                .hash()
+                .toString();
+        final Path fragment = directory.resolve(hash.substring(0, 2)).resolve(hash + ".jar");
+
+        final List<RawEntry> cached = read(fragment);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        misses.incrementAndGet();
+        Files.createDirectories(fragment.getParent());
+        final Path tmp = Files.createTempFile(fragment.getParent(), fragment.getFileName().toString(), ".tmp");
+        try {
+            try (ShadedJarWriter out = ShadedJarWriter.open(tmp.toFile(), compressionLevel, storeCompressed, 1)) {
+                writer.writeTo(out);
+            }
+            try {
+                Files.move(tmp, fragment, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, fragment, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        final List<RawEntry> written = read(fragment);
+        if (written == null) {
+            throw new IOException("Unable to read the relocated fragment [" + fragment + "] of [" + jar + "]");
+        }
+        return written;
+    }
+
+    /**
+     * Logs the number of cache hits and misses.
+     */
+    public void logSummary() {
+        if (directory != null) {
+            log.info("relocated fragment cache [" + directory + "]: [" + hits.get() + "] hits, [" + misses.get() + "] misses");
+        }
+    }
+
+    private List<RawEntry> read(Path fragment) {
+        try (ZipCentralDirectory zip = ZipCentralDirectory.open(fragment)) {
+            final List<ZipCentralDirectory.Entry> entries = zip.entries();
+            final List<RawEntry> rawEntries = new ArrayList<>(entries.size());
+            for (ZipCentralDirectory.Entry entry : entries) {
+                rawEntries.add(new RawEntry(entry, zip.readRaw(entry)));
+            }
+            return rawEntries;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("relocated fragment cache entry [" + fragment + "] is invalid, ignoring it", e);
+            return null;
+        }
+    }
+}
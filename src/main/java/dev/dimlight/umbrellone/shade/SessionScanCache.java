@@ -0,0 +1,96 @@
+package dev.dimlight.umbrellone.shade;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.eclipse.aether.SessionData;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Memoizes the {@link PackageIndex} of artifacts for the whole Maven session, so that the modules of a reactor
+ * depending on the same jars scan them only once.
+ * <p>
+ * The cache lives in the data of the repository session, which is shared by all the modules of the build (also when
+ * they are built concurrently with -T). Concurrent requests for the same file wait for the one scan in flight instead
+ * of starting their own.
+ *
+ * @author Marco Nicolini
+ */
+public class SessionScanCache {
+
+    // the class itself is the key, so that a different plugin class loader never finds an incompatible instance.
+    private static final Object SESSION_DATA_KEY = SessionScanCache.class;
+
+    private final ConcurrentMap<String, CompletableFuture<PackageIndex>> indexes = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private SessionScanCache() {}
+
+    /**
+     * @return the cache of the given session, created on first use.
+     */
+    public static SessionScanCache of(MavenSession session) {
+        final SessionData data = session.getRepositorySession().getData();
+        while (true) {
+            final Object existing = data.get(SESSION_DATA_KEY);
+            if (existing != null) {
+                return (SessionScanCache) existing;
+            }
+            final SessionScanCache created = new SessionScanCache();
+            if (data.set(SESSION_DATA_KEY, null, created)) {
+                return created;
+            }
+        }
+    }
+
+    /**
+     * @param node the dependency whose index is requested
+     * @param indexer the function that computes the index the first time it is requested in the session
+     * @return the index of the given dependency.
+     */
+    public PackageIndex get(DependencyNode node, Function<DependencyNode, PackageIndex> indexer) {
+        final File file = node.getArtifact().getFile();
+        if (file == null || !file.isFile()) {
+            return indexer.apply(node);
+        }
+
+        final String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        final CompletableFuture<PackageIndex> created = new CompletableFuture<>();
+        final CompletableFuture<PackageIndex> existing = indexes.putIfAbsent(key, created);
+        if (existing != null) {
+            hits.incrementAndGet();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        misses.incrementAndGet();
+        try {
+            final PackageIndex index = indexer.apply(node);
+            created.complete(index);
+            return index;
+        } catch (RuntimeException | Error e) {
+            // failures are not cached, a later request will try again.
+            indexes.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Logs the number of hits and misses so far in the session.
+     */
+    public void logSummary(Log log) {
+        log.info("session scan cache: [" + hits.get() + "] hits, [" + misses.get() + "] misses in this build");
+    }
+}
@@ -1,6 +1,9 @@
 package dev.dimlight.umbrellone.shade;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.vavr.collection.List;
+import io.vavr.collection.Set;
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -9,6 +12,18 @@ import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.shared.dependency.graph.DependencyGraphBuilder;
 import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * @author Marco Nicolini
@@ -20,33 +35,196 @@ public class ShadePluginConfigurationGenerator {
     private final MavenProject project;
     private final DependencyGraphBuilder dependencyGraphBuilder;
     private final List<MavenProject> reactorProjects;
+    private final int scanParallelism;
+    private final PackageIndexCache packageIndexCache;
+    private final JvmScanCache jvmScanCache;
+    private final DependencyGraphCache graphCache;
+    private final SessionScanCache sessionScanCache;
+    private final ExecutionMetrics metrics;
 
-    public ShadePluginConfigurationGenerator(Log log, MavenSession session, MavenProject project, DependencyGraphBuilder dependencyGraphBuilder, List<MavenProject> reactorProjects) {
+    public ShadePluginConfigurationGenerator(Log log, MavenSession session, MavenProject project, DependencyGraphBuilder dependencyGraphBuilder, List<MavenProject> reactorProjects, int scanParallelism, PackageIndexCache packageIndexCache, JvmScanCache jvmScanCache, DependencyGraphCache graphCache, ExecutionMetrics metrics) {
         this.log = log;
         this.session = session;
         this.project = project;
         this.dependencyGraphBuilder = dependencyGraphBuilder;
         this.reactorProjects = reactorProjects;
+        this.scanParallelism = scanParallelism;
+        this.packageIndexCache = packageIndexCache;
+        this.jvmScanCache = jvmScanCache;
+        this.graphCache = graphCache;
+        this.sessionScanCache = SessionScanCache.of(session);
+        this.metrics = metrics;
     }
 
     public ShadePluginConfiguration generateShadePluginConfiguration(ArtifactFilter artifactFilter, String relocationPrefix) throws MojoExecutionException, MojoFailureException {
-        final PackageUtils pkgUtils = PackageUtils.of(log);
-        final DependencyUtils depUtils = DependencyUtils.of(log, session, project, dependencyGraphBuilder, reactorProjects.toJavaList());
+        return generateShadePluginConfiguration(collectDependencies(artifactFilter), relocationPrefix);
+    }
+
+    /**
+     * @param artifactFilter the filter of the dependencies to include
+     * @return the dependencies the configuration would be generated from.
+     */
+    public List<DependencyNode> collectDependencies(ArtifactFilter artifactFilter) throws MojoExecutionException {
+        return collectDependencies(artifactFilter, artifact -> true);
+    }
+
+    /**
+     * @param artifactFilter the filter applied while building the dependency graph, the dependencies of an artifact it
+     *                       excludes are not visited
+     * @param selectionFilter the filter selecting, among all the visited dependencies, the ones to include
+     * @return the dependencies the configuration would be generated from.
+     */
+    public List<DependencyNode> collectDependencies(ArtifactFilter artifactFilter, ArtifactFilter selectionFilter) throws MojoExecutionException {
+        final DependencyUtils depUtils = DependencyUtils.of(log, session, project, dependencyGraphBuilder, reactorProjects.toJavaList(), graphCache);
 
-        final List<DependencyNode> dependencies = List.ofAll(depUtils.getAllDependencies(artifactFilter));
+        // the same artifact can be reached through several paths of the graph, it is included (and scanned) once.
+        final Map<String, DependencyNode> distinctNodes = new LinkedHashMap<>();
+        final int[] duplicates = {0};
+        final int[] notSelected = {0};
+        try (ExecutionMetrics.Phase ignored = metrics.phase("dependency-graph")) {
+            depUtils.forEachDependency(artifactFilter, depNode -> {
+                if (!selectionFilter.include(depNode.getArtifact())) {
+                    notSelected[0]++;
+                } else if (distinctNodes.putIfAbsent(depNode.getArtifact().getId(), depNode) != null) {
+                    duplicates[0]++;
+                }
+            });
+        }
+        final List<DependencyNode> dependencies = List.ofAll(distinctNodes.values());
+        if (notSelected[0] > 0) {
+            log.info("skipped [" + notSelected[0] + "] dependency nodes not matching the includes");
+        }
+        if (duplicates[0] > 0) {
+            log.info("skipped [" + duplicates[0] + "] duplicate dependency nodes");
+            metrics.addScansAvoided(duplicates[0]);
+        }
+        metrics.setJars(dependencies.size());
+        dependencies.forEach(depNode -> log.info("found dependency [" + depNode.toNodeString() + "]"));
+        return dependencies;
+    }
+
+    /**
+     * @param dependencies the (already collected) dependencies to include and relocate
+     * @param relocationPrefix the prefix of the relocated packages
+     * @return the configuration relocating all the packages of the given dependencies.
+     */
+    public ShadePluginConfiguration generateShadePluginConfiguration(List<DependencyNode> dependencies, String relocationPrefix) throws MojoExecutionException {
+        // different coordinates can still resolve to the same file (i.e. a reactor module), which is scanned once.
+        final List<DependencyNode> distinctFiles = dependencies.distinctBy(ShadePluginConfigurationGenerator::fileKey);
+        if (distinctFiles.size() < dependencies.size()) {
+            log.info("skipped [" + (dependencies.size() - distinctFiles.size()) + "] dependencies sharing the file of another one");
+            metrics.addScansAvoided(dependencies.size() - distinctFiles.size());
+        }
+
+        // each index is merged as soon as its scan completes and then dropped: only the distinct root packages and
+        // the packages not contained in other ones are held until the end.
+        final PackageReducer reducer = PackageReducer.of();
+        final java.util.Set<String> rootPackages = new java.util.TreeSet<>();
+        final long[] packageCount = {0L};
+        try (ExecutionMetrics.Phase ignored = metrics.phase("scan")) {
+            scanAll(distinctFiles, this::packageIndex, index -> {
+                packageCount[0] += index.getPackages().size();
+                for (String rootPkg : index.getRootPackages()) {
+                    if (rootPackages.add(rootPkg)) {
+                        reducer.add(rootPkg);
+                    }
+                }
+            });
+        }
+        metrics.setPackages(packageCount[0], rootPackages.size());
 
-        final List<String> rootPackages = dependencies
-                .peek(depNode -> log.info("found dependency [" + depNode.toNodeString() + "]"))
-                .map(pkgUtils::scanForPackages)
-                .distinct()
-                .flatMap(pkgUtils::rootPackages)
-                .distinct();
+        sessionScanCache.logSummary(log);
+        jvmScanCache.logStats(log);
+        packageIndexCache.logSummary();
 
         rootPackages.forEach(rootPkg -> log.info("found root pkg: [" + rootPkg + "]"));
 
-        final List<RelocationRule> rules = pkgUtils.simplifyPackages(rootPackages)
-                .map(pkg -> RelocationRule.of(pkg, relocationPrefix + pkg));
+        final List<RelocationRule> rules;
+        try (ExecutionMetrics.Phase ignored = metrics.phase("rules")) {
+            rules = reducer.packages()
+                    .map(pkg -> RelocationRule.of(pkg, relocationPrefix + pkg));
+        }
+        metrics.setRules(rules.size());
 
         return ShadePluginConfiguration.ofDependencies(dependencies, rules);
     }
+
+    /**
+     * @param depNode a dependency
+     * @return the packages of the dependency, only scanning its jar if none of the caches has them.
+     */
+    public PackageIndex packageIndex(DependencyNode depNode) {
+        // the session cache first, then the one of the jvm (kept by a daemon between builds), then the disk.
+        return sessionScanCache.get(depNode, n -> jvmScanCache.get(n, m -> packageIndexCache.get(m, this::scan)));
+    }
+
+    /**
+     * @param artifact an artifact, i.e. one of the included ones of a (possibly stored) configuration
+     * @return the packages of the artifact, as in {@link #packageIndex(DependencyNode)}.
+     */
+    public PackageIndex packageIndex(Artifact artifact) {
+        return packageIndex(new DefaultDependencyNode(null, artifact, null, null, null));
+    }
+
+    private PackageIndex scan(DependencyNode depNode) {
+        final PackageUtils pkgUtils = PackageUtils.of(log);
+        final Set<String> packages = pkgUtils.scanForPackages(depNode, metrics);
+        return PackageIndex.of(packages, pkgUtils.rootPackages(packages));
+    }
+
+    /**
+     * Scans all the given dependencies, possibly in parallel, handing every result to the given consumer (always on the
+     * calling thread) as soon as it is available.
+     *
+     * @param dependencies the dependencies to scan
+     * @param scanner the scanning function to apply to every dependency
+     * @param consumer the consumer of the scan results, called in no particular order
+     */
+    private <T> void scanAll(List<DependencyNode> dependencies,
+                             Function<DependencyNode, T> scanner,
+                             Consumer<T> consumer) throws MojoExecutionException {
+        final int threads = Math.min(scanParallelism, dependencies.size());
+        if (threads <= 1) {
+            try {
+                dependencies.forEach(depNode -> consumer.accept(scanner.apply(depNode)));
+            } catch (RuntimeException e) {
+                // failures are reported as the ones of a parallel scan.
+                throw new MojoExecutionException("Failed to scan dependencies: " + e.getMessage(), e);
+            }
+            return;
+        }
+
+        log.debug("scanning [" + dependencies.size() + "] dependencies using [" + threads + "] threads");
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("umbrellone-scan-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            final CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+            // the biggest jars are submitted first so that they don't end up alone at the tail of the scan.
+            dependencies.sortBy(depNode -> -fileSize(depNode))
+                    .forEach(depNode -> completionService.submit(() -> scanner.apply(depNode)));
+
+            for (int i = 0; i < dependencies.size(); i++) {
+                consumer.accept(completionService.take().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while scanning dependencies", e);
+        } catch (ExecutionException e) {
+            throw new MojoExecutionException("Failed to scan dependencies: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String fileKey(DependencyNode node) {
+        final File file = node.getArtifact().getFile();
+        return file != null ? file.getAbsolutePath() : node.getArtifact().getId();
+    }
+
+    private static long fileSize(DependencyNode node) {
+        final File file = node.getArtifact().getFile();
+        return file != null ? file.length() : 0L;
+    }
 }
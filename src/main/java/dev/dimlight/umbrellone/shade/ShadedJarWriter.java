@@ -0,0 +1,406 @@
+package dev.dimlight.umbrellone.shade;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes a jar deflating its entries in parallel.
+ * <p>
+ * Entries are compressed on a pool of threads and written in the order they were added, so that the content of the
+ * jar does not depend on the scheduling: the same entries (names, contents and times) always give the same bytes.
+ * Entries whose extension denotes already compressed data (images, archives...) are stored, as is any entry that
+ * deflating would not make smaller. Zip64 records are written when needed.
+ *
+ * @author Marco Nicolini
+ */
+public class ShadedJarWriter implements Closeable {
+
+    /**
+     * The time of the entries added without one (i.e. the directories): the earliest time a zip file can hold.
+     */
+    public static final long DEFAULT_TIME = LocalDateTime.of(1980, 1, 1, 0, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = ImmutableSet.of(
+            "png", "jpg", "jpeg", "gif", "webp", "ico", "jar", "war", "ear", "zip", "gz", "tgz", "bz2", "xz", "7z",
+            "jmod", "woff", "woff2", "mp3", "mp4", "ogg");
+
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private final File file;
+    private final CountingOutputStream out;
+    private final int compressionLevel;
+    private final boolean storeCompressed;
+    private final ExecutorService executor;
+    private final int window;
+    private final Deque<Future<CompressedEntry>> pending = new ArrayDeque<>();
+    private final List<CentralDirectoryRecord> centralDirectory = new ArrayList<>();
+    // every deflating thread reuses its own deflater, all of them are ended when the jar is closed.
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(this::newDeflater);
+    private final ThreadLocal<byte[]> deflateBuffer = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+    private long lastTime = -1;
+    private int lastDosTime;
+
+    private ShadedJarWriter(File file, int compressionLevel, boolean storeCompressed, int parallelism) throws IOException {
+        this.file = file;
+        this.out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        this.compressionLevel = compressionLevel;
+        this.storeCompressed = storeCompressed;
+        this.window = Math.max(1, parallelism) * 4;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), new ThreadFactoryBuilder()
+                .setNameFormat("umbrellone-deflate-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * @param file the jar to write
+     * @param compressionLevel the deflate level, from 0 (no compression) to 9, -1 for the default one
+     * @param storeCompressed whether entries holding already compressed data should be stored instead of deflated
+     * @param parallelism the number of threads deflating entries
+     */
+    public static ShadedJarWriter open(File file, int compressionLevel, boolean storeCompressed, int parallelism) throws IOException {
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Invalid compression level [" + compressionLevel + "]");
+        }
+        return new ShadedJarWriter(file, compressionLevel, storeCompressed, parallelism);
+    }
+
+    /**
+     * Rewrites an existing jar with the given options, keeping the order, the names, the contents and the times of its
+     * entries.
+     */
+    public static void rewrite(File jar, int compressionLevel, boolean storeCompressed, int parallelism) throws IOException {
+        final File rewritten = new File(jar.getAbsoluteFile().getParentFile(), jar.getName() + ".umbrellone.tmp");
+        try {
+            try (ZipFile in = new ZipFile(jar);
+                 ShadedJarWriter out = open(rewritten, compressionLevel, storeCompressed, parallelism)) {
+                final Enumeration<? extends ZipEntry> entries = in.entries();
+                while (entries.hasMoreElements()) {
+                    final ZipEntry entry = entries.nextElement();
+                    try (InputStream content = in.getInputStream(entry)) {
+                        out.add(entry.getName(), ByteStreams.toByteArray(content), entry.getTime());
+                    }
+                }
+            }
+            Files.move(rewritten.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(rewritten.toPath());
+        }
+    }
+
+    /**
+     * Adds a directory entry, with the default time.
+     *
+     * @param name the name of the directory, ending with a slash
+     */
+    public void addDirectory(String name) throws IOException {
+        add(name, new byte[0], DEFAULT_TIME);
+    }
+
+    /**
+     * Adds an entry, compressed asynchronously.
+     *
+     * @param time the modification time of the entry, in milliseconds since the epoch (-1 for the default time)
+     */
+    public void add(String name, byte[] content, long time) throws IOException {
+        final long entryTime = time >= 0 ? time : DEFAULT_TIME;
+        final boolean deflate = compressionLevel != 0 && content.length > 0 && !(storeCompressed && isCompressed(name));
+        if (entryTime != lastTime) { // most entries of a jar share a few times
+            lastTime = entryTime;
+            lastDosTime = dosTime(entryTime);
+        }
+        final int dosTime = lastDosTime;
+        pending.add(executor.submit(() -> compress(name, content, dosTime, deflate)));
+        while (pending.size() >= window) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Copies an entry of another zip as is, without decompressing it.
+     */
+    public void addRaw(ZipCentralDirectory source, ZipCentralDirectory.Entry entry) throws IOException {
+        addRaw(entry, source.readRaw(entry));
+    }
+
+    /**
+     * Adds an entry of another zip as is, given its data as stored in that zip (see {@link ZipCentralDirectory#readRaw}).
+     */
+    public void addRaw(ZipCentralDirectory.Entry entry, byte[] data) throws IOException {
+        pending.add(CompletableFuture.completedFuture(new CompressedEntry(entry.name.getBytes(StandardCharsets.UTF_8),
+                data, entry.method, entry.crc, (int) entry.size, entry.dosTime)));
+        while (pending.size() >= window) {
+            writeNext();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            writeCentralDirectory();
+        } finally {
+            executor.shutdownNow();
+            deflaters.forEach(Deflater::end);
+            out.close();
+        }
+    }
+
+    private Deflater newDeflater() {
+        final Deflater newDeflater = new Deflater(compressionLevel, true);
+        deflaters.add(newDeflater);
+        return newDeflater;
+    }
+
+    private CompressedEntry compress(String name, byte[] content, int dosTime, boolean deflate) {
+        final CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+
+        byte[] data = content;
+        int method = STORED;
+        if (deflate) {
+            final Deflater deflater = this.deflater.get();
+            deflater.reset();
+            deflater.setInput(content);
+            deflater.finish();
+            // the entry is stored when deflating it does not make it smaller, so a buffer of its size is enough.
+            byte[] deflated = deflateBuffer.get();
+            if (deflated.length < content.length) {
+                deflated = new byte[content.length];
+                deflateBuffer.set(deflated);
+            }
+            int length = 0;
+            while (!deflater.finished() && length < content.length) {
+                length += deflater.deflate(deflated, length, content.length - length);
+            }
+            if (deflater.finished() && length < content.length) {
+                data = Arrays.copyOf(deflated, length);
+                method = DEFLATED;
+            }
+        }
+        return new CompressedEntry(name.getBytes(StandardCharsets.UTF_8), data, method, crc.getValue(), content.length, dosTime);
+    }
+
+    private void writeNext() throws IOException {
+        final CompressedEntry entry;
+        try {
+            entry = pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing [" + file + "]");
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compress an entry of [" + file + "]", e.getCause());
+        }
+
+        final long offset = out.count;
+        final boolean zip64 = offset >= ZIP64_MAGIC;
+        out.writeInt(LOC_SIG);
+        out.writeShort(zip64 ? 45 : 20);
+        out.writeShort(UTF8_FLAG);
+        out.writeShort(entry.method);
+        out.writeInt(entry.dosTime);
+        out.writeInt((int) entry.crc);
+        out.writeInt(entry.data.length);
+        out.writeInt(entry.size);
+        out.writeShort(entry.name.length);
+        out.writeShort(0);
+        out.write(entry.name);
+        out.write(entry.data);
+
+        centralDirectory.add(new CentralDirectoryRecord(entry, offset));
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        final long cenStart = out.count;
+        for (CentralDirectoryRecord record : centralDirectory) {
+            final CompressedEntry entry = record.entry;
+            final boolean zip64 = record.offset >= ZIP64_MAGIC;
+            out.writeInt(CEN_SIG);
+            out.writeShort(zip64 ? 45 : 20); // version made by
+            out.writeShort(zip64 ? 45 : 20); // version needed to extract
+            out.writeShort(UTF8_FLAG);
+            out.writeShort(entry.method);
+            out.writeInt(entry.dosTime);
+            out.writeInt((int) entry.crc);
+            out.writeInt(entry.data.length);
+            out.writeInt(entry.size);
+            out.writeShort(entry.name.length);
+            out.writeShort(zip64 ? 12 : 0);
+            out.writeShort(0); // comment length
+            out.writeShort(0); // disk number
+            out.writeShort(0); // internal attributes
+            out.writeInt(0); // external attributes
+            out.writeInt(zip64 ? (int) ZIP64_MAGIC : (int) record.offset);
+            out.write(entry.name);
+            if (zip64) {
+                out.writeShort(ZIP64_EXTRA_ID);
+                out.writeShort(8);
+                out.writeLong(record.offset);
+            }
+        }
+        final long cenEnd = out.count;
+        final long cenSize = cenEnd - cenStart;
+        final long entries = centralDirectory.size();
+
+        final boolean zip64 = entries >= ZIP64_MAGIC_COUNT || cenStart >= ZIP64_MAGIC || cenSize >= ZIP64_MAGIC;
+        if (zip64) {
+            out.writeInt(ZIP64_EOCD_SIG);
+            out.writeLong(44); // size of the remaining record
+            out.writeShort(45);
+            out.writeShort(45);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeLong(entries);
+            out.writeLong(entries);
+            out.writeLong(cenSize);
+            out.writeLong(cenStart);
+
+            out.writeInt(ZIP64_LOCATOR_SIG);
+            out.writeInt(0);
+            out.writeLong(cenEnd);
+            out.writeInt(1);
+        }
+
+        out.writeInt(EOCD_SIG);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(zip64 ? ZIP64_MAGIC_COUNT : (int) entries);
+        out.writeShort(zip64 ? ZIP64_MAGIC_COUNT : (int) entries);
+        out.writeInt(zip64 ? (int) ZIP64_MAGIC : (int) cenSize);
+        out.writeInt(zip64 ? (int) ZIP64_MAGIC : (int) cenStart);
+        out.writeShort(0);
+    }
+
+    private static boolean isCompressed(String name) {
+        final int dot = name.lastIndexOf('.');
+        return dot >= 0 && dot > name.lastIndexOf('/') && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static int dosTime(long time) {
+        final LocalDateTime local = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (local.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (local.getYear() - 1980) << 25 | local.getMonthValue() << 21 | local.getDayOfMonth() << 16 |
+                local.getHour() << 11 | local.getMinute() << 5 | local.getSecond() >> 1;
+    }
+
+    private static class CompressedEntry {
+        final byte[] name;
+        final byte[] data;
+        final int method;
+        final long crc;
+        final int size;
+        final int dosTime;
+
+        CompressedEntry(byte[] name, byte[] data, int method, long crc, int size, int dosTime) {
+            this.name = name;
+            this.data = data;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.dosTime = dosTime;
+        }
+    }
+
+    private static class CentralDirectoryRecord {
+        final CompressedEntry entry;
+        final long offset;
+
+        CentralDirectoryRecord(CompressedEntry entry, long offset) {
+            this.entry = entry;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Little endian output stream, counting the bytes written.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream delegate;
+        long count;
+
+        CountingOutputStream(OutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
+
+        void writeShort(int value) throws IOException {
+            write(value & 0xFF);
+            write((value >>> 8) & 0xFF);
+        }
+
+        void writeInt(int value) throws IOException {
+            writeShort(value);
+            writeShort(value >>> 16);
+        }
+
+        void writeLong(long value) throws IOException {
+            writeInt((int) value);
+            writeInt((int) (value >>> 32));
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
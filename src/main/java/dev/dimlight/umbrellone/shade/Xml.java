@@ -1,115 +1,108 @@
 package dev.dimlight.umbrellone.shade;
 
-import org.apache.maven.artifact.Artifact;
-import org.apache.maven.shared.dependency.graph.DependencyNode;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
-import java.io.ByteArrayInputStream;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.File;
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 /**
  * Helpers to render shade plugin configuration xml fragment.
+ * <p>
+ * The fragment is streamed, already indented, straight to its destination: nothing is parsed back or held in memory.
  *
  * @author Marco Nicolini
  */
 public class Xml {
 
-    private Xml() {}
-
-    public static String render(ShadePluginConfiguration conf) {
-        final String configuration = "<configuration>" +
-                renderArtifactSet(conf.getIncludedArtifacts()) +
-                renderRules(conf.getRelocationRules()) +
-                "</configuration>";
-
-        return prettyPrint(configuration, 4);
-    }
-
-    private static String renderConfiguration(Iterable<Artifact> artifacts, Iterable<RelocationRule> relocationRules) {
-        final String configuration = "<configuration>" +
-                    renderArtifactSet(artifacts) +
-                    renderRules(relocationRules) +
-                "</configuration>";
+    private static final int INDENT = 4;
+    private static final int MAX_DEPTH = 3;
+    private static final char[] SPACES = new char[INDENT * MAX_DEPTH];
 
-        return prettyPrint(configuration, 4);
+    static {
+        Arrays.fill(SPACES, ' ');
     }
 
-    private static String renderArtifactSet(Iterable<Artifact> artifacts) {
-        final StringBuilder out = new StringBuilder("<artifactSet>\n").append("<includes>\n");
+    private Xml() {}
 
-        for (Artifact artifact : artifacts) {
-            out.append("<include>").append(artifact.getGroupId()).append(":").append(artifact.getArtifactId()).append("</include>").append("\n");
+    public static String render(ShadePluginConfiguration conf) {
+        final StringWriter out = new StringWriter();
+        try {
+            write(conf, out);
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
         }
-
-        return out.append("</includes>\n")
-                .append("</artifactSet>").toString();
+        return out.toString();
     }
 
-    private static String render(DependencyNode dependency) {
-        return "<include>" + dependency.getArtifact().getGroupId() + ":" + dependency.getArtifact().getArtifactId() + "</include>";
+    /**
+     * Writes the configuration fragment to the given file (UTF-8 encoded), creating its parent directories if needed.
+     */
+    public static void write(ShadePluginConfiguration conf, File file) throws IOException {
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            write(conf, out);
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to write [" + file + "]", e);
+        }
     }
 
-    private static String render(RelocationRule rule) {
-        return "<relocation> <pattern>" + rule.pattern + "</pattern> <shadedPattern>" + rule.shadedPattern + "</shadedPattern> </relocation>";
-    }
+    public static void write(ShadePluginConfiguration conf, Writer out) throws XMLStreamException {
+        // a factory per call: factories are not guaranteed to be thread safe.
+        final XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+        try {
+            start(xml, "configuration", 0);
 
-    private static String renderRules(Iterable<RelocationRule> rules) {
-        final StringBuilder out = new StringBuilder("<relocations>\n");
+            start(xml, "artifactSet", 1);
+            start(xml, "includes", 2);
+            for (String include : conf.getIncludedArtifacts().map(a -> a.getGroupId() + ":" + a.getArtifactId()).distinct()) {
+                leaf(xml, "include", include, 3);
+            }
+            end(xml, 2);
+            end(xml, 1);
+
+            start(xml, "relocations", 1);
+            for (RelocationRule rule : conf.getRelocationRules()) {
+                start(xml, "relocation", 2);
+                leaf(xml, "pattern", rule.pattern, 3);
+                leaf(xml, "shadedPattern", rule.shadedPattern, 3);
+                end(xml, 2);
+            }
+            end(xml, 1);
 
-        for (RelocationRule rule : rules) {
-            out.append(render(rule)).append("\n");
+            end(xml, 0);
+            xml.flush();
+        } finally {
+            xml.close();
         }
-
-        return out.append("</relocations>").toString();
     }
 
-    private static String prettyPrint(String xml, int indent) {
-        // stolen from https://stackoverflow.com/questions/25864316/pretty-print-xml-in-java-8
-        try {
-            // Turn xml string into a document
-            Document document = DocumentBuilderFactory.newInstance()
-                    .newDocumentBuilder()
-                    .parse(new InputSource(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
-
-            // Remove whitespaces outside tags
-            document.normalize();
-            XPath xPath = XPathFactory.newInstance().newXPath();
-            NodeList nodeList = (NodeList) xPath.evaluate("//text()[normalize-space()='']",
-                    document,
-                    XPathConstants.NODESET);
+    private static void start(XMLStreamWriter xml, String name, int depth) throws XMLStreamException {
+        indent(xml, depth);
+        xml.writeStartElement(name);
+        xml.writeCharacters("\n");
+    }
 
-            for (int i = 0; i < nodeList.getLength(); ++i) {
-                Node node = nodeList.item(i);
-                node.getParentNode().removeChild(node);
-            }
+    private static void leaf(XMLStreamWriter xml, String name, String text, int depth) throws XMLStreamException {
+        indent(xml, depth);
+        xml.writeStartElement(name);
+        xml.writeCharacters(text);
+        xml.writeEndElement();
+        xml.writeCharacters("\n");
+    }
 
-            // Setup pretty print options
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            transformerFactory.setAttribute("indent-number", indent);
-            Transformer transformer = transformerFactory.newTransformer();
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+    private static void end(XMLStreamWriter xml, int depth) throws XMLStreamException {
+        indent(xml, depth);
+        xml.writeEndElement();
+        xml.writeCharacters("\n");
+    }
 
-            // Return pretty print xml string
-            StringWriter stringWriter = new StringWriter();
-            transformer.transform(new DOMSource(document), new StreamResult(stringWriter));
-            return stringWriter.toString();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    private static void indent(XMLStreamWriter xml, int depth) throws XMLStreamException {
+        xml.writeCharacters(SPACES, 0, depth * INDENT);
     }
 }
@@ -0,0 +1,318 @@
+package dev.dimlight.umbrellone.shade;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal reader of the central directory of zip files.
+ * <p>
+ * Only the End-Of-Central-Directory records and the central directory itself are read: local headers and entry data
+ * are touched only when the content of an entry is explicitly requested, and no per-entry object is allocated while
+ * visiting the entry names. Zip64 archives are supported.
+ *
+ * @author Marco Nicolini
+ */
+public class ZipCentralDirectory implements Closeable {
+
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int CEN_SIZE = 46;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int LOC_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    // most zips have no comment: a small tail is read first, the biggest possible one only if needed.
+    private static final int SHORT_TAIL_SIZE = 1024;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private final Path zip;
+    private final FileChannel channel;
+    private long entries;
+    private long cenStart;
+    private long cenSize;
+    private long bytesRead;
+
+    private ZipCentralDirectory(Path zip, FileChannel channel) {
+        this.zip = zip;
+        this.channel = channel;
+    }
+
+    /**
+     * Receives the raw names of the entries of a zip file.
+     */
+    @FunctionalInterface
+    public interface EntryNameVisitor {
+
+        /**
+         * @param buf the buffer holding the name, only valid for the duration of the call
+         * @param offset the offset of the name in the buffer
+         * @param length the length in bytes of the name
+         */
+        void visit(byte[] buf, int offset, int length);
+    }
+
+    /**
+     * An entry of the central directory, with what is needed to read its content.
+     */
+    public static class Entry {
+        public final String name;
+        final int method;
+        final int dosTime;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        Entry(String name, int method, int dosTime, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    /**
+     * Opens a zip file and locates its central directory.
+     */
+    public static ZipCentralDirectory open(Path zip) throws IOException {
+        final FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ);
+        final ZipCentralDirectory centralDirectory = new ZipCentralDirectory(zip, channel);
+        try {
+            centralDirectory.locate();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return centralDirectory;
+    }
+
+    /**
+     * Calls the visitor with the name of every entry of the zip file, in central directory order.
+     *
+     * @param zip the zip file to read
+     * @param visitor the visitor for the entry names
+     * @return the number of bytes read from the file.
+     */
+    public static long forEachEntryName(Path zip, EntryNameVisitor visitor) throws IOException {
+        try (ZipCentralDirectory centralDirectory = open(zip)) {
+            centralDirectory.forEachEntryName(visitor);
+            return centralDirectory.getBytesRead();
+        }
+    }
+
+    /**
+     * Calls the visitor with the name of every entry of the zip file, in central directory order.
+     */
+    public void forEachEntryName(EntryNameVisitor visitor) throws IOException {
+        final ByteBuffer cen = read(cenStart, (int) cenSize);
+        final byte[] buf = cen.array();
+        int pos = 0;
+        for (long i = 0; i < entries; i++) {
+            final int nameLength = checkHeader(cen, pos, i);
+            visitor.visit(buf, pos + CEN_SIZE, nameLength);
+            pos += CEN_SIZE + nameLength + (cen.getShort(pos + 30) & 0xFFFF) + (cen.getShort(pos + 32) & 0xFFFF);
+        }
+    }
+
+    /**
+     * @return all the entries of the zip, in central directory order.
+     */
+    public List<Entry> entries() throws IOException {
+        final ByteBuffer cen = read(cenStart, (int) cenSize);
+        final List<Entry> entryList = new ArrayList<>();
+        int pos = 0;
+        for (long i = 0; i < entries; i++) {
+            final int nameLength = checkHeader(cen, pos, i);
+            final String name = new String(cen.array(), pos + CEN_SIZE, nameLength, StandardCharsets.UTF_8);
+            final int extraLength = cen.getShort(pos + 30) & 0xFFFF;
+            long size = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+            long compressedSize = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+            long localHeaderOffset = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+            if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC) {
+                // the zip64 extra field only holds, in this order, the values set to the magic in the header.
+                int field = zip64ExtraField(cen, pos + CEN_SIZE + nameLength, extraLength, name);
+                if (size == ZIP64_MAGIC) {
+                    size = zip64Value(cen, field, name);
+                    field += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC) {
+                    compressedSize = zip64Value(cen, field, name);
+                    field += 8;
+                }
+                if (localHeaderOffset == ZIP64_MAGIC) {
+                    localHeaderOffset = zip64Value(cen, field, name);
+                }
+            }
+            entryList.add(new Entry(name,
+                    cen.getShort(pos + 10) & 0xFFFF,
+                    cen.getInt(pos + 12),
+                    cen.getInt(pos + 16) & 0xFFFFFFFFL,
+                    compressedSize,
+                    size,
+                    localHeaderOffset));
+            pos += CEN_SIZE + nameLength + extraLength + (cen.getShort(pos + 32) & 0xFFFF);
+        }
+        return entryList;
+    }
+
+    /**
+     * @param entry an entry of this zip
+     * @return the data of the entry as stored in the zip (i.e. still compressed), to be copied as is in another zip.
+     */
+    public byte[] readRaw(Entry entry) throws IOException {
+        if (entry.compressedSize > Integer.MAX_VALUE || entry.size > Integer.MAX_VALUE) {
+            throw new ZipException("Entry [" + entry.name + "] of [" + zip + "] is too big to be copied");
+        }
+        return read(dataStart(entry), (int) entry.compressedSize).array();
+    }
+
+    private long dataStart(Entry entry) throws IOException {
+        final ByteBuffer localHeader = read(entry.localHeaderOffset, LOC_SIZE);
+        if (localHeader.getInt(0) != LOC_SIG) {
+            throw new ZipException("Invalid local header for [" + entry.name + "] in [" + zip + "]");
+        }
+        return entry.localHeaderOffset + LOC_SIZE + (localHeader.getShort(26) & 0xFFFF) + (localHeader.getShort(28) & 0xFFFF);
+    }
+
+    /**
+     * @return the number of entries of the zip.
+     */
+    public long getEntryCount() {
+        return entries;
+    }
+
+    /**
+     * @return the size in bytes of the central directory.
+     */
+    public long getSize() {
+        return cenSize;
+    }
+
+    /**
+     * @return the number of bytes read so far from the file.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void locate() throws IOException {
+        final long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, EOCD_SIZE + ZIP64_LOCATOR_SIZE + SHORT_TAIL_SIZE);
+        ByteBuffer tail = read(fileSize - tailSize, tailSize);
+        int eocd = findEocd(tail);
+        if (eocd < 0 && tailSize < fileSize) {
+            tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT_SIZE + ZIP64_LOCATOR_SIZE);
+            tail = read(fileSize - tailSize, tailSize);
+            eocd = findEocd(tail);
+        }
+        if (eocd < 0) {
+            throw new ZipException("End of central directory record not found in [" + zip + "]");
+        }
+
+        entries = tail.getShort(eocd + 10) & 0xFFFFL;
+        cenSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        // the start of the central directory is computed backwards, so that zips with a preamble are handled too.
+        cenStart = fileSize - tailSize + eocd - cenSize;
+
+        final int locator = eocd - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && tail.getInt(locator) == ZIP64_LOCATOR_SIG) {
+            final long zip64EocdPos = tail.getLong(locator + 8);
+            final ByteBuffer zip64Eocd = read(zip64EocdPos, ZIP64_EOCD_SIZE);
+            if (zip64Eocd.getInt(0) != ZIP64_EOCD_SIG) {
+                throw new ZipException("Invalid zip64 end of central directory record in [" + zip + "]");
+            }
+            entries = zip64Eocd.getLong(32);
+            cenSize = zip64Eocd.getLong(40);
+            cenStart = zip64EocdPos - cenSize;
+        }
+
+        if (cenStart < 0 || cenSize > Integer.MAX_VALUE) {
+            throw new ZipException("Unsupported central directory location or size in [" + zip + "]");
+        }
+    }
+
+    /**
+     * @return the position of the data of the zip64 extra field among the given extra fields.
+     */
+    private int zip64ExtraField(ByteBuffer cen, int start, int length, String name) throws ZipException {
+        final int end = Math.min(start + length, cen.limit());
+        int pos = start;
+        while (pos + 4 <= end) {
+            final int dataSize = cen.getShort(pos + 2) & 0xFFFF;
+            if ((cen.getShort(pos) & 0xFFFF) == ZIP64_EXTRA_ID) {
+                return pos + 4;
+            }
+            pos += 4 + dataSize;
+        }
+        throw new ZipException("Missing zip64 extra field for entry [" + name + "] of [" + zip + "]");
+    }
+
+    private long zip64Value(ByteBuffer cen, int pos, String name) throws ZipException {
+        if (pos + 8 > cen.limit()) {
+            throw new ZipException("Truncated zip64 extra field for entry [" + name + "] of [" + zip + "]");
+        }
+        return cen.getLong(pos);
+    }
+
+    /**
+     * @return the length of the name of the central directory header at the given position, once validated.
+     */
+    private int checkHeader(ByteBuffer cen, int pos, long index) throws ZipException {
+        if (pos + CEN_SIZE > cen.limit() || cen.getInt(pos) != CEN_SIG) {
+            throw new ZipException("Invalid central directory header at entry [" + index + "] of [" + zip + "]");
+        }
+        final int nameLength = cen.getShort(pos + 28) & 0xFFFF;
+        if (pos + CEN_SIZE + nameLength > cen.limit()) {
+            throw new ZipException("Truncated central directory header at entry [" + index + "] of [" + zip + "]");
+        }
+        return nameLength;
+    }
+
+    private static int findEocd(ByteBuffer tail) {
+        for (int pos = tail.limit() - EOCD_SIZE; pos >= 0; pos--) {
+            if (tail.getInt(pos) == EOCD_SIG && pos + EOCD_SIZE + (tail.getShort(pos + 20) & 0xFFFF) <= tail.limit()) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private ByteBuffer read(long position, int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at position [" + (position + buffer.position()) + "]");
+            }
+        }
+        buffer.flip();
+        bytesRead += size;
+        return buffer;
+    }
+}
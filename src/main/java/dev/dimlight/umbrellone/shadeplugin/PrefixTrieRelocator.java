@@ -0,0 +1,146 @@
+package dev.dimlight.umbrellone.shadeplugin;
+
+import org.apache.maven.plugins.shade.relocation.Relocator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A shade plugin {@link Relocator} holding all the relocation rules in a trie of package segments, so that a name is
+ * relocated with a single longest prefix lookup whatever the number of rules (the shade plugin tries its relocators one
+ * after the other, for every class, resource and string constant).
+ * <p>
+ * Rules apply to whole package segments: a rule for "a.b" relocates "a.b.C" and "a.b.c.D" but not "a.bc.D". Apart from
+ * that, names are relocated as the shade plugin SimpleRelocator does.
+ *
+ * @author Marco Nicolini
+ */
+public class PrefixTrieRelocator implements Relocator {
+
+    private static final Pattern QUALIFIED_NAME = Pattern.compile("\\b[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*(?:\\.[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*)+");
+
+    private final Node root = new Node();
+    private int size;
+
+    /**
+     * Adds a rule.
+     *
+     * @param pattern the dotted package to relocate (i.e. "com.google.common")
+     * @param shadedPattern the dotted package it is relocated to (i.e. "shaded.com.google.common")
+     */
+    public void add(String pattern, String shadedPattern) {
+        Node node = root;
+        for (String segment : pattern.split("\\.")) {
+            node = node.children.computeIfAbsent(segment, s -> new Node());
+        }
+        if (node.shadedPackage == null) {
+            size++;
+        }
+        node.shadedPackage = shadedPattern;
+        node.shadedPath = shadedPattern.replace('.', '/');
+    }
+
+    /**
+     * @return the number of rules.
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean canRelocatePath(String path) {
+        return findPath(path) != null;
+    }
+
+    @Override
+    public String relocatePath(String path) {
+        final int start = path.startsWith("/") ? 1 : 0;
+        final Match match = find(path, start, pathEnd(path), '/');
+        return match != null ? path.substring(0, start) + match.node.shadedPath + path.substring(match.end) : path;
+    }
+
+    @Override
+    public boolean canRelocateClass(String className) {
+        return className.indexOf('/') < 0 && find(className, 0, className.length(), '.') != null;
+    }
+
+    @Override
+    public String relocateClass(String className) {
+        final Match match = find(className, 0, className.length(), '.');
+        return match != null ? match.node.shadedPackage + className.substring(match.end) : className;
+    }
+
+    @Override
+    public String applyToSourceContent(String sourceContent) {
+        final Matcher names = QUALIFIED_NAME.matcher(sourceContent);
+        StringBuffer relocated = null;
+        while (names.find()) {
+            final Match match = find(sourceContent, names.start(), names.end(), '.');
+            if (match != null) {
+                if (relocated == null) {
+                    relocated = new StringBuffer(sourceContent.length() + 64);
+                }
+                names.appendReplacement(relocated, Matcher.quoteReplacement(
+                        match.node.shadedPackage + sourceContent.substring(match.end, names.end())));
+            }
+        }
+        if (relocated == null) {
+            return sourceContent;
+        }
+        names.appendTail(relocated);
+        return relocated.toString();
+    }
+
+    private Match findPath(String path) {
+        return find(path, path.startsWith("/") ? 1 : 0, pathEnd(path), '/');
+    }
+
+    private static int pathEnd(String path) {
+        return path.endsWith(".class") ? path.length() - ".class".length() : path.length();
+    }
+
+    /**
+     * @return the longest rule matching whole segments of <code>name[start, end)</code>, or null if none does.
+     */
+    private Match find(String name, int start, int end, char separator) {
+        Node node = root;
+        Match longest = null;
+        int segmentStart = start;
+        while (segmentStart <= end) {
+            int segmentEnd = name.indexOf(separator, segmentStart);
+            if (segmentEnd < 0 || segmentEnd > end) {
+                segmentEnd = end;
+            }
+            node = node.children.get(name.substring(segmentStart, segmentEnd));
+            if (node == null) {
+                break;
+            }
+            if (node.shadedPackage != null) {
+                longest = new Match(node, segmentEnd);
+            }
+            if (node.children.isEmpty()) {
+                break;
+            }
+            segmentStart = segmentEnd + 1;
+        }
+        return longest;
+    }
+
+    private static class Node {
+        final Map<String, Node> children = new HashMap<>(4);
+        String shadedPackage;
+        String shadedPath;
+    }
+
+    private static class Match {
+        final Node node;
+        final int end;
+
+        Match(Node node, int end) {
+            this.node = node;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package dev.dimlight.umbrellone.shadeplugin;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.shade.ShadeRequest;
+import org.apache.maven.plugins.shade.Shader;
+import org.apache.maven.plugins.shade.relocation.Relocator;
+import org.apache.maven.plugins.shade.relocation.SimpleRelocator;
+import org.codehaus.plexus.logging.AbstractLogEnabled;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shade plugin {@link Shader} (role hint "umbrellone", selected with the <code>shaderHint</code> parameter of the shade
+ * plugin) that replaces the relocators of the request with a single {@link PrefixTrieRelocator} before delegating to
+ * the default shader.
+ * <p>
+ * The relocators configured with <code>&lt;relocations&gt;</code> are compiled into the trie only if they are all plain
+ * package relocations (no includes, excludes or raw strings): otherwise they are used as they are.
+ * <p>
+ * This class is loaded by the class loader of the shade plugin, where umbrellone is added as a dependency without any of
+ * its own dependencies: it must not use anything but the JDK and the shade plugin.
+ *
+ * @author Marco Nicolini
+ */
+public class PrefixTrieShader extends AbstractLogEnabled implements Shader {
+
+    public static final String ROLE_HINT = "umbrellone";
+
+    /**
+     * The default shader of the shade plugin, injected by the container.
+     */
+    private Shader delegate;
+
+    @Override
+    public void shade(ShadeRequest request) throws IOException, MojoExecutionException {
+        final List<Relocator> relocators = request.getRelocators();
+        final PrefixTrieRelocator trie = relocators != null ? compile(relocators) : null;
+        if (trie != null) {
+            getLogger().info("relocating with a prefix trie of [" + trie.size() + "] rules");
+            request.setRelocators(Collections.singletonList(trie));
+        } else if (relocators != null && !relocators.isEmpty()) {
+            getLogger().info("relocators are not plain package relocations, using them as they are");
+        }
+        delegate.shade(request);
+    }
+
+    /**
+     * @return the trie holding all the given relocators, or null if some of them cannot be put in it.
+     */
+    static PrefixTrieRelocator compile(List<Relocator> relocators) {
+        if (relocators.isEmpty()) {
+            return null;
+        }
+        final PrefixTrieRelocator trie = new PrefixTrieRelocator();
+        try {
+            for (Relocator relocator : relocators) {
+                if (relocator.getClass() != SimpleRelocator.class ||
+                        Boolean.TRUE.equals(field(relocator, "rawString")) ||
+                        !isEmpty(field(relocator, "includes")) ||
+                        !isEmpty(field(relocator, "excludes"))) {
+                    return null;
+                }
+                trie.add((String) field(relocator, "pattern"), (String) field(relocator, "shadedPattern"));
+            }
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return null; // a version of the shade plugin with a different SimpleRelocator.
+        }
+        return trie;
+    }
+
+    private static Object field(Relocator relocator, String name) throws ReflectiveOperationException {
+        final Field field = SimpleRelocator.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(relocator);
+    }
+
+    private static boolean isEmpty(Object patterns) {
+        return patterns == null || ((Collection<?>) patterns).isEmpty();
+    }
+}
@@ -0,0 +1,71 @@
+package dev.dimlight;
+
+import com.google.common.collect.ImmutableList;
+import dev.dimlight.umbrellone.mojo.ArtifactMatcher;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Marco Nicolini
+ */
+public class ArtifactMatcherTest {
+
+    @Test
+    public void patternsShouldSupportTheShortFormsAndWildcards() {
+        final Artifact core = artifact("org.apache.maven", "maven-core", "jar", null);
+        final Artifact tests = artifact("org.apache.maven", "maven-core", "test-jar", "tests");
+        final Artifact sources = artifact("org.apache.maven", "maven-core", "jar", "sources");
+        final Artifact guava = artifact("com.google.guava", "guava", "jar", null);
+
+        assertMatches("org.apache.maven", core, tests, sources);
+        assertMatches("org.apache.maven:maven-core", core, tests, sources);
+        assertMatches("org.apache.maven:maven-core:tests", tests);
+        assertMatches("org.apache.maven:maven-core:jar:", core);
+        assertMatches("org.apache.maven:maven-core:jar:*", core, sources);
+        assertMatches("*:maven-core", core, tests, sources);
+        assertMatches("org.apache.*", core, tests, sources);
+        assertMatches("org.apache", new Artifact[0]);
+        assertMatches("com.google.guav?:*", guava);
+        assertMatches("*:*:*-jar:*", tests);
+        assertMatches("*", core, tests, sources, guava);
+    }
+
+    @Test
+    public void manyPatternsShouldMatchLikeEachOfThem() {
+        final List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            patterns.add("org.example" + i + ":lib" + i);
+        }
+        patterns.add("org.example42*:extra-*");
+        final ArtifactMatcher matcher = ArtifactMatcher.of(patterns);
+
+        Assert.assertTrue(matcher.matches(artifact("org.example7", "lib7", "jar", null)));
+        Assert.assertFalse(matcher.matches(artifact("org.example7", "lib8", "jar", null)));
+        Assert.assertTrue(matcher.matches(artifact("org.example420", "extra-lib", "jar", null)));
+        Assert.assertFalse(matcher.matches(artifact("org.example4", "extra-lib", "jar", null)));
+        Assert.assertFalse(ArtifactMatcher.of(ImmutableList.of()).matches(artifact("org.example7", "lib7", "jar", null)));
+    }
+
+    private static void assertMatches(String pattern, Artifact... expectedMatches) {
+        final ArtifactMatcher matcher = ArtifactMatcher.of(ImmutableList.of(pattern));
+        final List<Artifact> expected = ImmutableList.copyOf(expectedMatches);
+        for (Artifact artifact : ImmutableList.of(
+                artifact("org.apache.maven", "maven-core", "jar", null),
+                artifact("org.apache.maven", "maven-core", "test-jar", "tests"),
+                artifact("org.apache.maven", "maven-core", "jar", "sources"),
+                artifact("com.google.guava", "guava", "jar", null))) {
+            final boolean shouldMatch = expected.stream().anyMatch(e -> e.getId().equals(artifact.getId()));
+            Assert.assertEquals(pattern + " vs " + artifact, shouldMatch, matcher.matches(artifact));
+        }
+    }
+
+    private static Artifact artifact(String groupId, String artifactId, String type, String classifier) {
+        return new DefaultArtifact(groupId, artifactId, "1.0", "compile", type, classifier, new DefaultArtifactHandler(type));
+    }
+}
@@ -0,0 +1,84 @@
+package dev.dimlight;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import dev.dimlight.umbrellone.shade.ClassFileRelocator;
+import dev.dimlight.umbrellone.shade.PackageRelocator;
+import dev.dimlight.umbrellone.shade.RelocationRule;
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.Enumeration;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * @author Marco Nicolini
+ */
+public class ClassFileRelocatorTest {
+
+    private static final PackageRelocator RELOCATOR = PackageRelocator.of(ImmutableList.of(
+            RelocationRule.of("org.objectweb.asm", "SHADY.org.objectweb.asm"),
+            RelocationRule.of("com.google.common", "SHADY.com.google.common"),
+            RelocationRule.of("java.util.concurrent", "SHADY.java.util.concurrent")));
+
+    @Test
+    public void relocatedClassesShouldBeTheOnesOfAClassRemapper() throws IOException, URISyntaxException {
+        final ClassFileRelocator relocator = ClassFileRelocator.of(RELOCATOR);
+        int classes = 0;
+        int relocated = 0;
+        for (Class<?> library : ImmutableList.of(ClassReader.class, ClassRemapper.class, ImmutableList.class)) {
+            final File jar = new File(library.getProtectionDomain().getCodeSource().getLocation().toURI());
+            try (ZipFile zip = new ZipFile(jar)) {
+                final Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    final ZipEntry entry = entries.nextElement();
+                    if (!entry.getName().endsWith(".class")) {
+                        continue;
+                    }
+                    final byte[] content;
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        content = ByteStreams.toByteArray(in);
+                    }
+                    classes++;
+                    final byte[] fast = relocator.relocate(content);
+                    if (fast == null) {
+                        continue;
+                    }
+                    relocated++;
+                    // both are written again by asm, that orders the constant pool by first use.
+                    Assert.assertArrayEquals(entry.getName(),
+                            rewrite(content, writer -> new ClassRemapper(writer, RELOCATOR)),
+                            rewrite(fast, writer -> writer));
+                }
+            }
+        }
+        Assert.assertTrue(classes > 1000);
+        Assert.assertTrue("relocated [" + relocated + "] of [" + classes + "] classes", relocated > classes * 0.99);
+    }
+
+    @Test
+    public void modulesShouldBeLeftToTheCaller() {
+        final ClassWriter writer = new ClassWriter(0);
+        writer.visit(org.objectweb.asm.Opcodes.V9, org.objectweb.asm.Opcodes.ACC_MODULE, "module-info", null, null, null);
+        writer.visitModule("org.objectweb.asm", 0, null).visitExport("org/objectweb/asm", 0);
+        writer.visitEnd();
+        Assert.assertNull(ClassFileRelocator.of(RELOCATOR).relocate(writer.toByteArray()));
+        Assert.assertNull(ClassFileRelocator.of(RELOCATOR).relocate(new byte[]{1, 2, 3}));
+    }
+
+    private static byte[] rewrite(byte[] content, Function<ClassWriter, ClassVisitor> visitor) {
+        final ClassWriter writer = new ClassWriter(0);
+        new ClassReader(content).accept(visitor.apply(writer), 0);
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,157 @@
+package dev.dimlight;
+
+import com.google.common.io.ByteStreams;
+import dev.dimlight.umbrellone.shade.ClassReachability;
+import dev.dimlight.umbrellone.shade.MinimizationReport;
+import dev.dimlight.umbrellone.shade.NativeShader;
+import dev.dimlight.umbrellone.shade.RelocationRule;
+import dev.dimlight.umbrellone.shade.ShadePluginConfiguration;
+import dev.dimlight.umbrellone.shade.ShadedJarWriter;
+import io.vavr.collection.List;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.ZipFile;
+
+/**
+ * @author Marco Nicolini
+ */
+public class NativeShaderTest {
+
+    private static final long TIME = 1_500_000_000_000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void jarsAssembledFromCachedFragmentsShouldBeIdentical() throws IOException, MojoExecutionException {
+        final File projectJar = jar("project.jar", "app/App.properties", "META-INF/MANIFEST.MF");
+        final File libJar = jar("lib.jar", "com/lib/api/lib.properties", "com/lib/impl/image.png", "META-INF/LIB.SF", "other/x.txt");
+        final ShadePluginConfiguration conf = ShadePluginConfiguration.of(
+                List.of(artifact("lib", libJar)),
+                List.of(RelocationRule.of("com.lib", "shaded.com.lib")));
+        final File cache = tmp.newFolder("fragments");
+
+        final File uncached = shade(projectJar, conf, null);
+        final File firstCached = shade(projectJar, conf, cache);
+        final File secondCached = shade(projectJar, conf, cache);
+
+        Assert.assertArrayEquals(Files.readAllBytes(uncached.toPath()), Files.readAllBytes(firstCached.toPath()));
+        Assert.assertArrayEquals(Files.readAllBytes(uncached.toPath()), Files.readAllBytes(secondCached.toPath()));
+        try (ZipFile zip = new ZipFile(secondCached)) {
+            Assert.assertEquals("com/lib/api/lib.properties", read(zip, "shaded/com/lib/api/lib.properties"));
+            Assert.assertNotNull(zip.getEntry("other/x.txt"));
+            Assert.assertNull(zip.getEntry("META-INF/LIB.SF"));
+        }
+
+        // different rules make different fragments.
+        final ShadePluginConfiguration otherRules = ShadePluginConfiguration.of(conf.getIncludedArtifacts(),
+                List.of(RelocationRule.of("com.lib", "other.com.lib")));
+        try (ZipFile zip = new ZipFile(shade(projectJar, otherRules, cache))) {
+            Assert.assertNotNull(zip.getEntry("other/com/lib/api/lib.properties"));
+            Assert.assertNull(zip.getEntry("shaded/com/lib/api/lib.properties"));
+        }
+    }
+
+    @Test
+    public void unreachableClassesShouldBeRemoved() throws IOException, MojoExecutionException {
+        final File projectJar = tmp.newFile("project.jar");
+        try (ShadedJarWriter out = ShadedJarWriter.open(projectJar, 6, true, 1)) {
+            out.add("app/App.class", classFile("app/App", "java/lang/Object", "Lcom/lib/api/Used;", "com.lib.api.Spi"), TIME);
+        }
+        final File libJar = tmp.newFile("lib.jar");
+        try (ShadedJarWriter out = ShadedJarWriter.open(libJar, 6, true, 1)) {
+            out.add("com/lib/api/Used.class", classFile("com/lib/api/Used", "com/lib/impl/Helper", null, null), TIME);
+            out.add("com/lib/api/Spi.class", classFile("com/lib/api/Spi", "java/lang/Object", null, null), TIME);
+            out.add("com/lib/impl/Helper.class", classFile("com/lib/impl/Helper", "java/lang/Object", null, null), TIME);
+            out.add("com/lib/impl/SpiImpl.class", classFile("com/lib/impl/SpiImpl", "com/lib/api/Spi", null, null), TIME);
+            out.add("com/lib/impl/Unused.class", classFile("com/lib/impl/Unused", "com/lib/api/Used", null, null), TIME);
+            out.add("com/lib/extra/Reflected.class", classFile("com/lib/extra/Reflected", "java/lang/Object", null, null), TIME);
+            out.add("META-INF/services/com.lib.api.Spi", "# the provider\ncom.lib.impl.SpiImpl\n".getBytes(StandardCharsets.UTF_8), TIME);
+            out.add("com/lib/impl/lib.properties", new byte[]{1}, TIME);
+        }
+        final ShadePluginConfiguration conf = ShadePluginConfiguration.of(
+                List.of(artifact("lib", libJar)),
+                List.of(RelocationRule.of("com.lib", "shaded.com.lib")));
+
+        final ClassReachability reachability = ClassReachability.of(new SilentLog(), 2, projectJar,
+                java.util.Collections.singletonList(libJar), java.util.Collections.singletonList("com.lib.extra.*"));
+        Assert.assertEquals(7, reachability.getClasses());
+
+        for (File cache : new File[]{null, tmp.newFolder("fragments")}) {
+            final File output = tmp.newFile();
+            final MinimizationReport report = MinimizationReport.create();
+            NativeShader.of(new SilentLog(), 2, 6, true, cache, "1.0").shade(projectJar, conf, output, reachability, report);
+
+            try (ZipFile zip = new ZipFile(output)) {
+                Assert.assertNotNull(zip.getEntry("app/App.class"));
+                Assert.assertNotNull(zip.getEntry("shaded/com/lib/api/Used.class"));
+                Assert.assertNotNull(zip.getEntry("shaded/com/lib/impl/Helper.class"));
+                Assert.assertNotNull(zip.getEntry("shaded/com/lib/impl/SpiImpl.class"));
+                Assert.assertNotNull(zip.getEntry("shaded/com/lib/extra/Reflected.class"));
+                Assert.assertNotNull(zip.getEntry("shaded/com/lib/impl/lib.properties"));
+                Assert.assertNull(zip.getEntry("shaded/com/lib/impl/Unused.class"));
+            }
+
+            final File reportFile = new File(tmp.getRoot(), "report.txt");
+            report.writeTo(reportFile);
+            Assert.assertTrue(Files.readAllLines(reportFile.toPath()).get(1).startsWith("dev.dimlight.test:lib:1.0=1/6,"));
+        }
+    }
+
+    private static byte[] classFile(String name, String superName, String fieldDescriptor, String constant) {
+        final ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null);
+        if (fieldDescriptor != null) {
+            writer.visitField(Opcodes.ACC_PUBLIC, "field", fieldDescriptor, null, null).visitEnd();
+        }
+        if (constant != null) {
+            writer.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "CONSTANT", "Ljava/lang/String;", null, constant).visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private File shade(File projectJar, ShadePluginConfiguration conf, File cache) throws IOException, MojoExecutionException {
+        final File output = tmp.newFile();
+        NativeShader.of(new SilentLog(), 2, 6, true, cache, "1.0").shade(projectJar, conf, output);
+        return output;
+    }
+
+    private File jar(String name, String... entries) throws IOException {
+        final File jar = tmp.newFile(name);
+        try (ShadedJarWriter out = ShadedJarWriter.open(jar, 6, true, 1)) {
+            for (String entry : entries) {
+                out.add(entry, entry.getBytes(StandardCharsets.UTF_8), TIME);
+            }
+        }
+        return jar;
+    }
+
+    private static Artifact artifact(String artifactId, File file) {
+        final Artifact artifact = new DefaultArtifact("dev.dimlight.test", artifactId, "1.0", "compile", "jar", null,
+                new DefaultArtifactHandler("jar"));
+        artifact.setFile(file);
+        return artifact;
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+}
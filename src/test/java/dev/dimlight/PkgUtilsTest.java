@@ -2,13 +2,18 @@ package dev.dimlight;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import dev.dimlight.umbrellone.shade.PackageReducer;
 import dev.dimlight.umbrellone.shade.PackageUtils;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugin.testing.SilentLog;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * @author Marco Nicolini
@@ -41,4 +46,59 @@ public class PkgUtilsTest {
 
         Assert.assertEquals(ImmutableSet.of("a", "b.c.d"), ImmutableSet.copyOf(PackageUtils.of(log).rootPackages(pkgs2)));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void simplifyPackagesShouldDropContainedPackages() {
+        final List<String> pkgs = ImmutableList.of(
+                "a.b",
+                "a.b.c",
+                "a.b-c",
+                "a.b-c.d",
+                "a.b0",
+                "a.c",
+                "a.b");
+
+        Assert.assertEquals(ImmutableList.of("a.b", "a.b-c", "a.b0", "a.c"), PackageUtils.of(log).simplifyPackages(pkgs).toJavaList());
+    }
+
+    @Test
+    public void simplifyPackagesShouldMatchTheNaiveAlgorithm() {
+        final Random random = new Random(42);
+        final String[] segments = {"a", "b", "c", "a0", "b-", "b_", "aa"};
+
+        for (int run = 0; run < 1_000; run++) {
+            final List<String> pkgs = new ArrayList<>();
+            final int pkgCount = random.nextInt(30);
+            for (int i = 0; i < pkgCount; i++) {
+                final StringBuilder pkg = new StringBuilder(segments[random.nextInt(segments.length)]);
+                final int depth = random.nextInt(4);
+                for (int d = 0; d < depth; d++) {
+                    pkg.append('.').append(segments[random.nextInt(segments.length)]);
+                }
+                pkgs.add(pkg.toString());
+            }
+
+            Assert.assertEquals("simplifying " + pkgs, naiveSimplifyPackages(pkgs), PackageUtils.of(log).simplifyPackages(pkgs).toJavaList());
+
+            final PackageReducer reducer = PackageReducer.of();
+            pkgs.forEach(reducer::add);
+            Assert.assertEquals("reducing " + pkgs, naiveSimplifyPackages(pkgs), reducer.packages().toJavaList());
+            Assert.assertEquals(naiveSimplifyPackages(pkgs).size(), reducer.size());
+        }
+    }
+
+    /**
+     * Reference implementation checking all packages in couples.
+     */
+    private static List<String> naiveSimplifyPackages(List<String> pkgs) {
+        final Set<String> kept = new TreeSet<>(pkgs);
+        for (String a : pkgs) {
+            for (String b : pkgs) {
+                if (a.startsWith(b + ".")) {
+                    kept.remove(a);
+                }
+            }
+        }
+        return new ArrayList<>(kept);
+    }
+}
@@ -0,0 +1,72 @@
+package dev.dimlight;
+
+import com.google.common.collect.ImmutableList;
+import dev.dimlight.umbrellone.shadeplugin.PrefixTrieRelocator;
+import org.apache.maven.plugins.shade.relocation.Relocator;
+import org.apache.maven.plugins.shade.relocation.SimpleRelocator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * @author Marco Nicolini
+ */
+public class PrefixTrieRelocatorTest {
+
+    private static final List<String> RULES = ImmutableList.of("io.netty", "com.google.common", "com.google.gson", "org.a");
+
+    @Test
+    public void trieShouldRelocateLikeTheShadePluginRelocators() {
+        final PrefixTrieRelocator trie = new PrefixTrieRelocator();
+        final List<Relocator> simple = RULES.stream()
+                .map(rule -> {
+                    trie.add(rule, "SHADY." + rule);
+                    return (Relocator) new SimpleRelocator(rule, "SHADY." + rule, null, null);
+                })
+                .collect(java.util.stream.Collectors.toList());
+
+        for (String path : ImmutableList.of("io/netty/buffer/ByteBuf.class", "/com/google/gson/gson.properties",
+                "com/google/common/", "io/netty", "org/a/B", "java/lang/Object.class", "com/google/Other.class")) {
+            Assert.assertEquals(path, relocatePath(simple, path), trie.canRelocatePath(path) ? trie.relocatePath(path) : path);
+        }
+        for (String className : ImmutableList.of("io.netty.buffer.ByteBuf", "com.google.gson.Gson", "org.a.B$C",
+                "java.lang.Object", "com.google.Other", "io/netty/buffer/ByteBuf")) {
+            Assert.assertEquals(className, relocateClass(simple, className), trie.canRelocateClass(className) ? trie.relocateClass(className) : className);
+        }
+
+        Assert.assertEquals("import SHADY.io.netty.buffer.ByteBuf; import java.util.List; SHADY.org.a.B.c();",
+                trie.applyToSourceContent("import io.netty.buffer.ByteBuf; import java.util.List; org.a.B.c();"));
+    }
+
+    @Test
+    public void rulesShouldApplyToWholeSegmentsOnly() {
+        final PrefixTrieRelocator trie = new PrefixTrieRelocator();
+        trie.add("a.b", "SHADY.a.b");
+        trie.add("a.b.c.d", "OTHER.a.b.c.d");
+
+        Assert.assertEquals("SHADY.a.b.C", trie.relocateClass("a.b.C"));
+        Assert.assertEquals("OTHER.a.b.c.d.E", trie.relocateClass("a.b.c.d.E"));
+        Assert.assertEquals("SHADY/a/b/c/D.class", trie.relocatePath("a/b/c/D.class"));
+        Assert.assertFalse(trie.canRelocateClass("a.bc.D"));
+        Assert.assertFalse(trie.canRelocatePath("a/bc/D.class"));
+    }
+
+    private static String relocatePath(List<Relocator> relocators, String path) {
+        for (Relocator relocator : relocators) {
+            if (relocator.canRelocatePath(path)) {
+                return relocator.relocatePath(path);
+            }
+        }
+        return path;
+    }
+
+    private static String relocateClass(List<Relocator> relocators, String className) {
+        for (Relocator relocator : relocators) {
+            if (relocator.canRelocateClass(className)) {
+                return relocator.relocateClass(className);
+            }
+        }
+        return className;
+    }
+}
@@ -0,0 +1,93 @@
+package dev.dimlight;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import dev.dimlight.umbrellone.shade.PackageUtils;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * @author Marco Nicolini
+ */
+public class ScanForPackagesTest {
+
+    private final Log log = new SilentLog();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void scanShouldFindPackagesInJarsWithDirectoryEntries() throws IOException {
+        final File jar = jar(ImmutableList.of(
+                "META-INF/",
+                "META-INF/MANIFEST.MF",
+                "a/",
+                "a/b/",
+                "a/b/C.class",
+                "a/b/d/",
+                "a/b/d/E.class",
+                "x/",
+                "x/y/",
+                "x/y/res.txt",
+                "empty/"));
+
+        Assert.assertEquals(ImmutableSet.of("a.b", "a.b.d", "x.y"), ImmutableSet.copyOf(PackageUtils.of(log).scanForPackages(node(jar))));
+    }
+
+    @Test
+    public void scanShouldFindPackagesInJarsWithoutDirectoryEntries() throws IOException {
+        final File jar = jar(ImmutableList.of(
+                "META-INF/MANIFEST.MF",
+                "META-INF/versions/9/module-info.class",
+                "module-info.class",
+                "a/b/C.class",
+                "a/b/d/E.class",
+                "a/b/F.class",
+                "x/y/res.txt"));
+
+        Assert.assertEquals(ImmutableSet.of("a.b", "a.b.d", "x.y"), ImmutableSet.copyOf(PackageUtils.of(log).scanForPackages(node(jar))));
+    }
+
+    @Test
+    public void scanShouldHandleZip64Jars() throws IOException {
+        final ImmutableList.Builder<String> entries = ImmutableList.builder();
+        for (int i = 0; i < 70_000; i++) {
+            entries.add("p" + (i % 7) + "/C" + i + ".class");
+        }
+
+        Assert.assertEquals(ImmutableSet.of("p0", "p1", "p2", "p3", "p4", "p5", "p6"),
+                ImmutableSet.copyOf(PackageUtils.of(log).scanForPackages(node(jar(entries.build())))));
+    }
+
+    private File jar(List<String> entryNames) throws IOException {
+        final File jar = tmp.newFile();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            for (String entryName : entryNames) {
+                out.putNextEntry(new ZipEntry(entryName));
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static DependencyNode node(File jar) {
+        final DefaultArtifact artifact = new DefaultArtifact("g", "a", "1.0", "compile", "jar", null, new DefaultArtifactHandler("jar"));
+        artifact.setFile(jar);
+        return new DefaultDependencyNode(null, artifact, null, null, null);
+    }
+}
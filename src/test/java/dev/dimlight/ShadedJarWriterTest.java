@@ -0,0 +1,96 @@
+package dev.dimlight;
+
+import com.google.common.io.ByteStreams;
+import dev.dimlight.umbrellone.shade.ShadedJarWriter;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * @author Marco Nicolini
+ */
+public class ShadedJarWriterTest {
+
+    private static final long TIME = 1_500_000_000_000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void writtenJarShouldBeReadable() throws IOException {
+        final File jar = write(4, 6);
+
+        try (ZipFile zip = new ZipFile(jar)) {
+            Assert.assertEquals(5, zip.size());
+            Assert.assertEquals(ZipEntry.DEFLATED, zip.getEntry("a/b/C.class").getMethod());
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("a/b/image.png").getMethod());
+            Assert.assertTrue(zip.getEntry("a/").isDirectory());
+            Assert.assertEquals(TIME / 2000, zip.getEntry("a/b/C.class").getTime() / 2000);
+            Assert.assertEquals(content("a/b/C.class"), read(zip, "a/b/C.class"));
+            Assert.assertEquals(content("a/b/image.png"), read(zip, "a/b/image.png"));
+            Assert.assertEquals("", read(zip, "a/b/empty.txt"));
+        }
+    }
+
+    @Test
+    public void jarsWrittenWithTheSameEntriesShouldBeIdentical() throws IOException {
+        final byte[] serial = Files.readAllBytes(write(1, 9).toPath());
+        final byte[] parallel = Files.readAllBytes(write(8, 9).toPath());
+
+        Assert.assertArrayEquals(serial, parallel);
+    }
+
+    @Test
+    public void writerShouldHandleZip64EntryCounts() throws IOException {
+        final File jar = tmp.newFile();
+        try (ShadedJarWriter out = ShadedJarWriter.open(jar, 1, true, 2)) {
+            for (int i = 0; i < 70_000; i++) {
+                out.add("p/C" + i + ".class", new byte[]{(byte) i}, TIME);
+            }
+        }
+
+        try (ZipFile zip = new ZipFile(jar)) {
+            Assert.assertEquals(70_000, zip.size());
+            Assert.assertNotNull(zip.getEntry("p/C69999.class"));
+        }
+    }
+
+    private File write(int parallelism, int compressionLevel) throws IOException {
+        final File jar = tmp.newFile();
+        try (ShadedJarWriter out = ShadedJarWriter.open(jar, compressionLevel, true, parallelism)) {
+            out.addDirectory("a/");
+            out.addDirectory("a/b/");
+            out.add("a/b/C.class", bytes("a/b/C.class"), TIME);
+            out.add("a/b/image.png", bytes("a/b/image.png"), TIME);
+            out.add("a/b/empty.txt", new byte[0], -1);
+        }
+        return jar;
+    }
+
+    private static String content(String name) {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append(name).append(i % 10);
+        }
+        return content.toString();
+    }
+
+    private static byte[] bytes(String name) {
+        return content(name).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package dev.dimlight;
+
+import dev.dimlight.umbrellone.shade.ShadedJarWriter;
+import dev.dimlight.umbrellone.shade.ZipCentralDirectory;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipFile;
+
+/**
+ * @author Marco Nicolini
+ */
+public class ZipCentralDirectoryTest {
+
+    private static final byte[] NAME = "a/b.txt".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONTENT = "hello zip64".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void zip64EntriesShouldBeCopiedAsTheyAre() throws IOException {
+        final File zip64 = tmp.newFile();
+        Files.write(zip64.toPath(), zip64Entry());
+
+        final File copy = tmp.newFile();
+        try (ZipCentralDirectory in = ZipCentralDirectory.open(zip64.toPath());
+             ShadedJarWriter out = ShadedJarWriter.open(copy, -1, true, 1)) {
+            final List<ZipCentralDirectory.Entry> entries = in.entries();
+            Assert.assertEquals(1, entries.size());
+            Assert.assertArrayEquals(CONTENT, in.readRaw(entries.get(0)));
+            out.addRaw(in, entries.get(0));
+        }
+
+        try (ZipFile zip = new ZipFile(copy);
+             InputStream content = zip.getInputStream(zip.getEntry("a/b.txt"))) {
+            final byte[] read = new byte[CONTENT.length + 1];
+            Assert.assertEquals(CONTENT.length, content.read(read));
+            Assert.assertEquals(new String(CONTENT, StandardCharsets.UTF_8), new String(read, 0, CONTENT.length, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return a zip with a single stored entry, whose sizes and offset are only in the zip64 extra field of the central
+     *         directory.
+     */
+    private static byte[] zip64Entry() {
+        final CRC32 crc = new CRC32();
+        crc.update(CONTENT);
+        final int extraLength = 4 + 3 * 8;
+        final ByteBuffer zip = ByteBuffer.allocate(30 + NAME.length + CONTENT.length + 46 + NAME.length + extraLength + 22)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        zip.putInt(0x04034b50).putShort((short) 45).putShort((short) 0).putShort((short) 0).putInt(0)
+                .putInt((int) crc.getValue()).putInt(CONTENT.length).putInt(CONTENT.length)
+                .putShort((short) NAME.length).putShort((short) 0).put(NAME).put(CONTENT);
+
+        final int cenStart = zip.position();
+        zip.putInt(0x02014b50).putShort((short) 45).putShort((short) 45).putShort((short) 0).putShort((short) 0).putInt(0)
+                .putInt((int) crc.getValue()).putInt(-1).putInt(-1)
+                .putShort((short) NAME.length).putShort((short) extraLength).putShort((short) 0)
+                .putShort((short) 0).putShort((short) 0).putInt(0).putInt(-1).put(NAME)
+                .putShort((short) 0x0001).putShort((short) (3 * 8))
+                .putLong(CONTENT.length).putLong(CONTENT.length).putLong(0);
+        final int cenSize = zip.position() - cenStart;
+
+        zip.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) 1).putShort((short) 1)
+                .putInt(cenSize).putInt(cenStart).putShort((short) 0);
+        return zip.array();
+    }
+}